@@ -0,0 +1,50 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.example;
+
+import com.thilinamb.flume.sink.Constants;
+import com.thilinamb.flume.sink.MessagePreprocessor;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+
+/**
+ * A <code>MessagePreprocessor</code> taking the topic and the key from the headers of the event.
+ * Events without a "topic" header are published to the topic set by the property "topic".
+ */
+public class HeaderRoutingPreprocessor implements MessagePreprocessor {
+
+    public static final String TOPIC_HEADER = "topic";
+    public static final String KEY_HEADER = "key";
+
+    @Override
+    public String extractKey(Event event, Context context) {
+        return event.getHeaders().get(KEY_HEADER);
+    }
+
+    @Override
+    public String extractTopic(Event event, Context context) {
+        String topic = event.getHeaders().get(TOPIC_HEADER);
+        return topic != null ? topic : context.getString(Constants.TOPIC, Constants.DEFAULT_TOPIC);
+    }
+
+    @Override
+    public String transformMessage(Event event, Context context) {
+        return new String(event.getBody());
+    }
+}
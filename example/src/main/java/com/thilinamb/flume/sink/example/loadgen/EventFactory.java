@@ -0,0 +1,151 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.example.loadgen;
+
+import com.thilinamb.flume.sink.Constants;
+import com.thilinamb.flume.sink.example.HeaderRoutingPreprocessor;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Creates synthetic syslog like events. The body size is distributed uniformly between a minimum and a
+ * maximum, the keys follow a Zipf distribution, and the topics are picked according to their weights.
+ * A share of the events has an urgent severity.
+ *
+ * The topic and the key are set as the "topic" and "key" headers, to be used with the
+ * <code>HeaderRoutingPreprocessor</code>. The "Severity" and "timestamp" headers are set as the
+ * Flume syslog source does.
+ */
+public class EventFactory {
+
+    public static final String SEVERITY_HEADER = "Severity";
+    private static final String[] MONTHS = {
+            "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+    private static final String[] APPS = {"sshd", "kernel", "cron", "nginx", "postfix", "systemd"};
+    private static final String FILLER = "lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod " +
+            "tempor incididunt ut labore et dolore magna aliqua ";
+
+    private final Random random;
+    private final int minBodySize;
+    private final int maxBodySize;
+    private final String[] keys;
+    // cumulative probabilities of the keys and the topics.
+    private final double[] keyDistribution;
+    private final String[] topics;
+    private final double[] topicDistribution;
+    private final double urgentRatio;
+    private final StringBuilder body = new StringBuilder();
+
+    public EventFactory(Context context) {
+        random = new Random(context.getLong(LoadGeneratorConstants.SEED, System.nanoTime()));
+        minBodySize = context.getInteger(LoadGeneratorConstants.BODY_SIZE_MIN, 100);
+        maxBodySize = Math.max(minBodySize, context.getInteger(LoadGeneratorConstants.BODY_SIZE_MAX, 500));
+        urgentRatio = Double.parseDouble(context.getString(LoadGeneratorConstants.URGENT_RATIO, "0.01").trim());
+
+        int keyCount = context.getInteger(LoadGeneratorConstants.KEY_COUNT, 1000);
+        double keySkew = Double.parseDouble(context.getString(LoadGeneratorConstants.KEY_SKEW, "1.0").trim());
+        keys = new String[keyCount];
+        double[] keyWeights = new double[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key-" + i;
+            keyWeights[i] = 1 / Math.pow(i + 1, keySkew);
+        }
+        keyDistribution = cumulative(keyWeights);
+
+        // topics are given as "name:weight" pairs separated by spaces.
+        List<String> topicNames = new ArrayList<String>();
+        List<Double> topicWeights = new ArrayList<Double>();
+        for (String topic : context.getString(LoadGeneratorConstants.TOPICS, "loadgen").trim().split("\\s+")) {
+            int separator = topic.lastIndexOf(':');
+            if (separator > 0) {
+                topicNames.add(topic.substring(0, separator));
+                topicWeights.add(Double.parseDouble(topic.substring(separator + 1)));
+            } else {
+                topicNames.add(topic);
+                topicWeights.add(1d);
+            }
+        }
+        topics = topicNames.toArray(new String[topicNames.size()]);
+        double[] weights = new double[topicWeights.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = topicWeights.get(i);
+        }
+        topicDistribution = cumulative(weights);
+    }
+
+    public String[] getTopics() {
+        return topics;
+    }
+
+    public Event createEvent() {
+        boolean urgent = random.nextDouble() < urgentRatio;
+        int severity = urgent ? random.nextInt(3) : 3 + random.nextInt(5);
+        long timestamp = System.currentTimeMillis();
+        String app = APPS[random.nextInt(APPS.length)];
+
+        // <PRI>MMM dd HH:mm:ss host app[pid]: message
+        body.setLength(0);
+        body.append('<').append(8 + severity).append('>')
+                .append(MONTHS[random.nextInt(12)]).append(' ').append(10 + random.nextInt(18))
+                .append(" 12:").append(10 + random.nextInt(50)).append(':').append(10 + random.nextInt(50))
+                .append(" host-").append(random.nextInt(100)).append(' ')
+                .append(app).append('[').append(1000 + random.nextInt(30000)).append("]: ");
+        int size = minBodySize + random.nextInt(maxBodySize - minBodySize + 1);
+        while (body.length() < size) {
+            int offset = random.nextInt(FILLER.length());
+            body.append(FILLER, offset, Math.min(FILLER.length(), offset + size - body.length()));
+        }
+        body.setLength(size);
+
+        Map<String, String> headers = new HashMap<String, String>(8);
+        headers.put(HeaderRoutingPreprocessor.TOPIC_HEADER, topics[pick(topicDistribution)]);
+        headers.put(HeaderRoutingPreprocessor.KEY_HEADER, keys[pick(keyDistribution)]);
+        headers.put(SEVERITY_HEADER, Integer.toString(severity));
+        headers.put(Constants.TIMESTAMP_HEADER, Long.toString(timestamp));
+        return EventBuilder.withBody(body.toString().getBytes(), headers);
+    }
+
+    private int pick(double[] distribution) {
+        int index = Arrays.binarySearch(distribution, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, distribution.length - 1);
+    }
+
+    private static double[] cumulative(double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double[] distribution = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            distribution[i] = sum / total;
+        }
+        return distribution;
+    }
+}
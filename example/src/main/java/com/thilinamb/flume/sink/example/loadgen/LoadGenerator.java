@@ -0,0 +1,365 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.example.loadgen;
+
+import com.thilinamb.flume.sink.Constants;
+import com.thilinamb.flume.sink.KafkaSink;
+import com.thilinamb.flume.sink.example.HeaderRoutingPreprocessor;
+import com.thilinamb.flume.sink.util.TestUtil;
+import org.apache.flume.Channel;
+import org.apache.flume.ChannelException;
+import org.apache.flume.Context;
+import org.apache.flume.SinkRunner;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.sink.DefaultSinkProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A load generator pushing synthetic syslog like events through a <code>KafkaSink</code>, for soak
+ * testing a sink configuration before rolling it out.
+ *
+ * The events are put into a <code>MemoryChannel</code> at a target rate, or as fast as the channel
+ * accepts them, and the sink is driven by a Flume <code>SinkRunner</code> as in an agent. The sink
+ * publishes to the brokers given by "kafka.metadata.broker.list", or to an in-process broker if it's
+ * not set. The throughput, the latency percentiles from the creation of an event until its batch is
+ * committed, the GC time and the channel fill are reported periodically on the standard output and
+ * summarized at the end.
+ *
+ * Usage: <code>LoadGenerator [properties file] [key=value]...</code>
+ */
+public class LoadGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+    private static final String SINK_NAME = "loadgen-sink";
+    private static final String CHANNEL_NAME = "loadgen-channel";
+    private static final String SINK_MBEAN = "org.apache.flume.sink:type=" + SINK_NAME;
+    private static final String CHANNEL_MBEAN = "org.apache.flume.channel:type=" + CHANNEL_NAME;
+    private static final int PUT_BATCH_SIZE = 100;
+    private static final long SAMPLE_INTERVAL_MS = 1;
+
+    private final Context loadContext;
+    private final Map<String, String> sinkParams;
+    private final double rate;
+    private final AtomicLong produced = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong channelFullCount = new AtomicLong();
+    private final LatencyHistogram intervalLatencies = new LatencyHistogram();
+    private final LatencyHistogram totalLatencies = new LatencyHistogram();
+    private volatile boolean producing;
+    private volatile boolean sampling;
+    // creation time of the events in flight, indexed by their sequence number.
+    private long[] createTimes;
+    private int createTimesMask;
+
+    public LoadGenerator(Context context) {
+        loadContext = new Context(context.getSubProperties(LoadGeneratorConstants.PROPERTY_PREFIX));
+        sinkParams = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : context.getParameters().entrySet()) {
+            if (!entry.getKey().startsWith(LoadGeneratorConstants.PROPERTY_PREFIX)) {
+                sinkParams.put(entry.getKey(), entry.getValue());
+            }
+        }
+        rate = Double.parseDouble(loadContext.getString(LoadGeneratorConstants.RATE, "0").trim());
+    }
+
+    public static void main(String[] args) throws Exception {
+        // properties files and key=value pairs, the later ones overriding the earlier ones.
+        Properties props = new Properties();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator > 0) {
+                props.put(arg.substring(0, separator).trim(), arg.substring(separator + 1).trim());
+            } else {
+                InputStream in = new FileInputStream(arg);
+                try {
+                    props.load(in);
+                } finally {
+                    in.close();
+                }
+            }
+        }
+        Map<String, String> params = new HashMap<String, String>();
+        for (String name : props.stringPropertyNames()) {
+            params.put(name, props.getProperty(name));
+        }
+        new LoadGenerator(new Context(params)).run();
+    }
+
+    public void run() throws IOException, InterruptedException {
+        long durationMillis = TimeUnit.SECONDS.toMillis(
+                loadContext.getLong(LoadGeneratorConstants.DURATION_SECONDS, 60L));
+        long reportIntervalMillis = TimeUnit.SECONDS.toMillis(
+                loadContext.getLong(LoadGeneratorConstants.REPORT_INTERVAL_SECONDS, 10L));
+        long drainTimeoutMillis = TimeUnit.SECONDS.toMillis(
+                loadContext.getLong(LoadGeneratorConstants.DRAIN_TIMEOUT_SECONDS, 30L));
+        int channelCapacity = loadContext.getInteger(LoadGeneratorConstants.CHANNEL_CAPACITY, 10000);
+
+        // the in-process broker is the one the unit tests of the sink run against.
+        TestUtil kafka = null;
+        String brokerKey = Constants.PROPERTY_PREFIX + ".metadata.broker.list";
+        if (loadContext.getBoolean(LoadGeneratorConstants.EMBEDDED, !sinkParams.containsKey(brokerKey))) {
+            int partitions = loadContext.getInteger(LoadGeneratorConstants.EMBEDDED_PARTITIONS, 4);
+            kafka = TestUtil.getInstance();
+            kafka.prepare();
+            for (String topic : new EventFactory(loadContext).getTopics()) {
+                kafka.createTopic(topic, partitions);
+            }
+            sinkParams.put(brokerKey, kafka.getKafkaServerUrl());
+            logger.info("Started an in-process broker at " + kafka.getKafkaServerUrl());
+        }
+        setDefault(Constants.PROPERTY_PREFIX + ".serializer.class", "kafka.serializer.StringEncoder");
+        setDefault(Constants.PROPERTY_PREFIX + ".request.required.acks", "1");
+        setDefault(Constants.PREPROCESSOR, HeaderRoutingPreprocessor.class.getName());
+        int batchSize = new Context(sinkParams).getInteger(Constants.BATCH_SIZE, Constants.DEFAULT_BATCH_SIZE);
+
+        MemoryChannel channel = new MemoryChannel();
+        channel.setName(CHANNEL_NAME);
+        Context channelContext = new Context();
+        channelContext.put("capacity", Integer.toString(channelCapacity));
+        channelContext.put("transactionCapacity", Integer.toString(Math.max(batchSize, PUT_BATCH_SIZE)));
+        channelContext.put("keep-alive", "1");
+        Configurables.configure(channel, channelContext);
+        channel.start();
+
+        KafkaSink sink = new KafkaSink();
+        sink.setName(SINK_NAME);
+        Configurables.configure(sink, new Context(sinkParams));
+        sink.setChannel(channel);
+        DefaultSinkProcessor processor = new DefaultSinkProcessor();
+        processor.setSinks(Collections.<org.apache.flume.Sink>singletonList(sink));
+        SinkRunner sinkRunner = new SinkRunner(processor);
+
+        // the events in flight are bounded by the channel capacity and a put transaction.
+        int ringSize = Integer.highestOneBit((channelCapacity + PUT_BATCH_SIZE) * 2) << 1;
+        createTimes = new long[ringSize];
+        createTimesMask = ringSize - 1;
+
+        final EventFactory eventFactory = new EventFactory(loadContext);
+        final Channel producerChannel = channel;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                produce(producerChannel, eventFactory);
+            }
+        }, "loadgen-producer");
+        Thread sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sampleLatencies();
+            }
+        }, "loadgen-sampler");
+
+        logger.info("Publishing to " + sinkParams.get(brokerKey) + ", topics: " +
+                java.util.Arrays.toString(eventFactory.getTopics()) + ", rate: " +
+                (rate > 0 ? rate + " events/s" : "unbounded") + ", duration: " + durationMillis / 1000 + "s");
+        System.out.println(String.format("%8s %12s %12s %9s %9s %9s %9s %9s %8s %7s %6s",
+                "time(s)", "produced/s", "committed/s", "p50(ms)", "p95(ms)", "p99(ms)", "p99.9(ms)", "max(ms)",
+                "gc(ms)", "fill(%)", "full"));
+
+        sinkRunner.start();
+        producing = true;
+        sampling = true;
+        producer.start();
+        sampler.start();
+
+        long start = System.currentTimeMillis();
+        long startGcTime = getGcTime();
+        long lastReport = start;
+        long lastProduced = 0;
+        long lastCommitted = 0;
+        long lastGcTime = startGcTime;
+        double maxFill = 0;
+        while (System.currentTimeMillis() - start < durationMillis) {
+            Thread.sleep(Math.min(reportIntervalMillis, durationMillis - (System.currentTimeMillis() - start)));
+            long now = System.currentTimeMillis();
+            long gcTime = getGcTime();
+            double fill = getAttribute(CHANNEL_MBEAN, "ChannelFillPercentage");
+            maxFill = Math.max(maxFill, fill);
+            double seconds = Math.max(now - lastReport, 1) / 1000d;
+            synchronized (intervalLatencies) {
+                System.out.println(String.format("%8d %12.0f %12.0f %9.2f %9.2f %9.2f %9.2f %9.2f %8d %7.1f %6d",
+                        (now - start) / 1000, (produced.get() - lastProduced) / seconds,
+                        (committed.get() - lastCommitted) / seconds, millis(intervalLatencies.getPercentile(50)),
+                        millis(intervalLatencies.getPercentile(95)), millis(intervalLatencies.getPercentile(99)),
+                        millis(intervalLatencies.getPercentile(99.9)), millis(intervalLatencies.getMax()),
+                        gcTime - lastGcTime, fill, channelFullCount.get()));
+                totalLatencies.add(intervalLatencies);
+                intervalLatencies.reset();
+            }
+            lastReport = now;
+            lastProduced = produced.get();
+            lastCommitted = committed.get();
+            lastGcTime = gcTime;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        long totalGcTime = getGcTime() - startGcTime;
+
+        // stop producing, and give the sink a chance to publish the events left in the channel.
+        producing = false;
+        producer.join();
+        long drainDeadline = System.currentTimeMillis() + drainTimeoutMillis;
+        while (committed.get() < produced.get() && System.currentTimeMillis() < drainDeadline) {
+            Thread.sleep(100);
+        }
+        sampling = false;
+        sampler.join();
+        sinkRunner.stop();
+        channel.stop();
+        if (kafka != null) {
+            kafka.tearDown();
+        }
+
+        totalLatencies.add(intervalLatencies);
+        System.out.println();
+        System.out.println("Summary");
+        System.out.println(String.format("  duration:           %d s", elapsed / 1000));
+        System.out.println(String.format("  events produced:    %d", produced.get()));
+        System.out.println(String.format("  events committed:   %d (%d left in the channel)", committed.get(),
+                produced.get() - committed.get()));
+        System.out.println(String.format("  throughput:         %.0f events/s", committed.get() * 1000d / elapsed));
+        System.out.println(String.format("  latency (ms):       p50 %.2f, p95 %.2f, p99 %.2f, p99.9 %.2f, max %.2f",
+                millis(totalLatencies.getPercentile(50)), millis(totalLatencies.getPercentile(95)),
+                millis(totalLatencies.getPercentile(99)), millis(totalLatencies.getPercentile(99.9)),
+                millis(totalLatencies.getMax())));
+        System.out.println(String.format("  gc time:            %d ms (%.2f%%)", totalGcTime,
+                totalGcTime * 100d / elapsed));
+        System.out.println(String.format("  max channel fill:   %.1f%%, full %d times", maxFill,
+                channelFullCount.get()));
+    }
+
+    /**
+     * Put events into the channel at the target rate. With a target rate, the latency of an event is
+     * measured from the time it was due rather than the time it was put, so that stalls of the channel
+     * are not hidden by the generator falling behind.
+     */
+    private void produce(Channel channel, EventFactory eventFactory) {
+        long intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        long start = System.nanoTime();
+        long sequence = 0;
+        while (producing) {
+            Transaction transaction = channel.getTransaction();
+            int count = 0;
+            try {
+                transaction.begin();
+                while (count < PUT_BATCH_SIZE && producing) {
+                    long createTime = System.nanoTime();
+                    if (intervalNanos > 0) {
+                        long due = start + (sequence + count) * intervalNanos;
+                        if (createTime < due) {
+                            // commit the events put so far before waiting for the next one.
+                            if (count > 0) {
+                                break;
+                            }
+                            LockSupport.parkNanos(due - createTime);
+                            continue;
+                        }
+                        createTime = due;
+                    }
+                    createTimes[(int) ((sequence + count) & createTimesMask)] = createTime;
+                    channel.put(eventFactory.createEvent());
+                    count++;
+                }
+                transaction.commit();
+                sequence += count;
+                produced.set(sequence);
+            } catch (ChannelException e) {
+                // the channel is full. the sequence numbers of the rolled back events are reused.
+                transaction.rollback();
+                channelFullCount.incrementAndGet();
+            } finally {
+                transaction.close();
+            }
+        }
+    }
+
+    /**
+     * Record the latencies of the events committed by the sink, polling its drain counter.
+     * The events are committed in the order they were put, so the counter tells which ones are done.
+     */
+    private void sampleLatencies() {
+        long done = 0;
+        while (sampling) {
+            long drained = (long) getAttribute(SINK_MBEAN, "EventDrainSuccessCount");
+            if (drained > done) {
+                long now = System.nanoTime();
+                synchronized (intervalLatencies) {
+                    for (long sequence = done; sequence < drained; sequence++) {
+                        intervalLatencies.record((now - createTimes[(int) (sequence & createTimesMask)]) / 1000);
+                    }
+                }
+                done = drained;
+                committed.set(done);
+            }
+            try {
+                Thread.sleep(SAMPLE_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void setDefault(String key, String value) {
+        if (!sinkParams.containsKey(key)) {
+            sinkParams.put(key, value);
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000d;
+    }
+
+    private static long getGcTime() {
+        long gcTime = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcTime += Math.max(gc.getCollectionTime(), 0);
+        }
+        return gcTime;
+    }
+
+    private static double getAttribute(String objectName, String attribute) {
+        try {
+            Object value = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(objectName),
+                    attribute);
+            return ((Number) value).doubleValue();
+        } catch (JMException e) {
+            // the counters are registered once the component is started.
+            logger.debug("Error reading " + attribute + " of " + objectName, e);
+            return 0;
+        }
+    }
+}
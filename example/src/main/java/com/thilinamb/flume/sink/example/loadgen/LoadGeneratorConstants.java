@@ -0,0 +1,43 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.example.loadgen;
+
+/**
+ * Properties of the load generator. They are given with the prefix "loadgen." and every other
+ * property is passed to the sink.
+ */
+public class LoadGeneratorConstants {
+
+    public static final String PROPERTY_PREFIX = "loadgen.";
+
+    public static final String RATE = "rate";
+    public static final String DURATION_SECONDS = "duration.seconds";
+    public static final String REPORT_INTERVAL_SECONDS = "report.interval.seconds";
+    public static final String DRAIN_TIMEOUT_SECONDS = "drain.timeout.seconds";
+    public static final String BODY_SIZE_MIN = "body.size.min";
+    public static final String BODY_SIZE_MAX = "body.size.max";
+    public static final String KEY_COUNT = "key.count";
+    public static final String KEY_SKEW = "key.skew";
+    public static final String TOPICS = "topics";
+    public static final String URGENT_RATIO = "urgent.ratio";
+    public static final String SEED = "seed";
+    public static final String CHANNEL_CAPACITY = "channel.capacity";
+    public static final String EMBEDDED = "embedded";
+    public static final String EMBEDDED_PARTITIONS = "embedded.partitions";
+}
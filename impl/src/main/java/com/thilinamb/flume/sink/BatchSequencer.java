@@ -0,0 +1,150 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Orders the batches processed concurrently in the pipelined mode of the sink.
+ *
+ * Batches are taken from the channel one at a time, and each non empty batch gets a ticket
+ * in the order it was taken. Batches can be preprocessed concurrently, but they are published
+ * and committed strictly in the ticket order.
+ *
+ * When a batch fails, the batches taken after it are rolled back as well, otherwise their
+ * events would be committed ahead of the events of the failed batch. A rolled back transaction
+ * returns its events to the head of the channel, so the rollbacks are done in the reverse ticket
+ * order and no new batch is taken until the failed batch itself is rolled back.
+ * This restores the channel to the order the events were taken in.
+ */
+class BatchSequencer {
+
+    private final ReentrantLock takeLock = new ReentrantLock();
+    private final Object turnLock = new Object();
+    // guarded by takeLock
+    private long nextTicket;
+    // guarded by turnLock
+    private long nowServing;
+    private long abortedTicket = -1;
+    private long rollbackTicket = -1;
+
+    /**
+     * Acquire the exclusive right to take events from the channel.
+     */
+    void lockTake() {
+        takeLock.lock();
+    }
+
+    void unlockTake() {
+        takeLock.unlock();
+    }
+
+    /**
+     * Issue a ticket for a batch. Should be called while holding the take lock, after taking
+     * the events of the batch.
+     */
+    long nextTicket() {
+        return nextTicket++;
+    }
+
+    /**
+     * Wait until all the batches with smaller tickets are completed.
+     * @return <code>false</code> if a preceding batch failed, in which case the batch should be
+     * rolled back through <code>abort</code>.
+     */
+    boolean awaitTurn(long ticket) {
+        synchronized (turnLock) {
+            awaitUninterruptibly(ticket, true);
+            return abortedTicket < 0;
+        }
+    }
+
+    /**
+     * Pass the turn to the next batch after the batch is committed.
+     */
+    void complete(long ticket) {
+        synchronized (turnLock) {
+            passTurn(ticket);
+        }
+    }
+
+    /**
+     * Prepare to roll back a batch, either because it failed or because a preceding batch failed.
+     * Returns when the batch can be rolled back, which should be followed by <code>rolledBack</code>.
+     */
+    void abort(long ticket) {
+        boolean failedBatch;
+        synchronized (turnLock) {
+            awaitUninterruptibly(ticket, true);
+            failedBatch = abortedTicket < 0;
+        }
+        if (failedBatch) {
+            // stop new takes until the batches in flight are rolled back. This is released in rolledBack.
+            takeLock.lock();
+        }
+        synchronized (turnLock) {
+            if (failedBatch) {
+                abortedTicket = ticket;
+                rollbackTicket = nextTicket - 1;
+            }
+            passTurn(ticket);
+            // the batches taken later should be rolled back first.
+            awaitUninterruptibly(ticket, false);
+        }
+    }
+
+    /**
+     * Mark a batch as rolled back, letting the preceding batch roll back.
+     */
+    void rolledBack(long ticket) {
+        synchronized (turnLock) {
+            rollbackTicket--;
+            if (ticket == abortedTicket) {
+                abortedTicket = -1;
+                rollbackTicket = -1;
+                takeLock.unlock();
+            }
+            turnLock.notifyAll();
+        }
+    }
+
+    private void passTurn(long ticket) {
+        if (nowServing != ticket) {
+            throw new IllegalStateException("Batch " + ticket + " completed out of order. Now serving: " +
+                    nowServing);
+        }
+        nowServing++;
+        turnLock.notifyAll();
+    }
+
+    // should be called while holding the turnLock
+    private void awaitUninterruptibly(long ticket, boolean forTurn) {
+        boolean interrupted = false;
+        while (forTurn ? nowServing != ticket : rollbackTicket != ticket) {
+            try {
+                turnLock.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A circuit breaker guarding the sends to a Kafka cluster.
+ *
+ * While CLOSED, the outcomes of the last sends are kept in a sliding window. Once the failure rate
+ * within the window reaches the threshold, the breaker OPENs and rejects the sends without calling the
+ * broker. After the open period, the breaker becomes HALF_OPEN and lets a limited number of probe sends
+ * through. If they all succeed the breaker is CLOSED again, otherwise it OPENs for another period.
+ *
+ * Each state transition starts a new generation. A permit carries the generation it was acquired in, and
+ * the outcome of a send acquired before the last transition is ignored.
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Returned by <code>tryAcquire</code> when the send is rejected.
+     */
+    public static final long REJECTED = -1;
+
+    private final String name;
+    private final double failureRateThreshold;
+    private final int minCalls;
+    private final long openMillis;
+    private final int halfOpenProbes;
+    private final KafkaSinkCounter counter;
+    // outcomes of the last sends. true for a failure.
+    private final boolean[] window;
+    private int windowPosition;
+    private int callCount;
+    private int failureCount;
+    private State state = State.CLOSED;
+    private long openUntil;
+    private int probesInFlight;
+    private int successfulProbes;
+    private long generation;
+
+    /**
+     * @param name name of the guarded cluster, used for logging.
+     * @param failureRateThreshold failure rate(0 - 1) within the window that opens the breaker.
+     * @param windowSize number of the last sends considered for the failure rate.
+     * @param minCalls minimum number of sends in the window before the failure rate is evaluated.
+     * @param openMillis how long the breaker stays open before letting probes through.
+     * @param halfOpenProbes number of probe sends allowed while half open.
+     * @param counter counter to report the state transitions.
+     */
+    public CircuitBreaker(String name, double failureRateThreshold, int windowSize, int minCalls,
+                          long openMillis, int halfOpenProbes, KafkaSinkCounter counter) {
+        this.name = name;
+        this.failureRateThreshold = failureRateThreshold;
+        this.minCalls = Math.min(minCalls, windowSize);
+        this.openMillis = openMillis;
+        this.halfOpenProbes = halfOpenProbes;
+        this.counter = counter;
+        this.window = new boolean[windowSize];
+    }
+
+    /**
+     * Check whether a send would be let through at the moment, without acquiring the permission.
+     */
+    public synchronized boolean isCallPermitted() {
+        updateState();
+        return state == State.CLOSED || (state == State.HALF_OPEN && probesInFlight < halfOpenProbes);
+    }
+
+    /**
+     * Acquire the permission for a send. The outcome of an acquired send should be reported through
+     * <code>onSuccess</code> or <code>onFailure</code> along with the returned permit.
+     * @return the permit, or <code>REJECTED</code> if the send should be rejected.
+     */
+    public synchronized long tryAcquire() {
+        updateState();
+        if (state == State.CLOSED) {
+            return generation;
+        }
+        if (state == State.HALF_OPEN && probesInFlight < halfOpenProbes) {
+            probesInFlight++;
+            return generation;
+        }
+        return REJECTED;
+    }
+
+    public synchronized void onSuccess(long permit) {
+        if (permit != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            probesInFlight--;
+            successfulProbes++;
+            if (successfulProbes >= halfOpenProbes) {
+                transitionTo(State.CLOSED);
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure(long permit) {
+        if (permit != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            probesInFlight--;
+            transitionTo(State.OPEN);
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (callCount >= minCalls && failureCount >= failureRateThreshold * callCount) {
+                transitionTo(State.OPEN);
+            }
+        }
+    }
+
+    public synchronized State getState() {
+        updateState();
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (callCount == window.length) {
+            // overwrite the oldest outcome
+            if (window[windowPosition]) {
+                failureCount--;
+            }
+        } else {
+            callCount++;
+        }
+        window[windowPosition] = failure;
+        if (failure) {
+            failureCount++;
+        }
+        windowPosition = (windowPosition + 1) % window.length;
+    }
+
+    private void updateState() {
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            transitionTo(State.HALF_OPEN);
+        }
+    }
+
+    private void transitionTo(State newState) {
+        state = newState;
+        generation++;
+        switch (newState) {
+            case OPEN:
+                openUntil = System.currentTimeMillis() + openMillis;
+                counter.incrementBreakerOpenCount();
+                logger.warn("Circuit breaker of the cluster " + name + " is open for " + openMillis + "ms.");
+                break;
+            case HALF_OPEN:
+                probesInFlight = 0;
+                successfulProbes = 0;
+                counter.incrementBreakerHalfOpenCount();
+                logger.info("Circuit breaker of the cluster " + name + " is half open.");
+                break;
+            case CLOSED:
+                callCount = 0;
+                failureCount = 0;
+                windowPosition = 0;
+                counter.incrementBreakerClosedCount();
+                logger.info("Circuit breaker of the cluster " + name + " is closed.");
+                break;
+        }
+    }
+}
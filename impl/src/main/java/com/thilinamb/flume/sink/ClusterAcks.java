@@ -0,0 +1,112 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Collects the outcome of publishing a batch to multiple clusters, and lets the sink wait
+ * until enough clusters have acknowledged the batch to commit it. Once the batch is committed,
+ * the clusters which failed to publish it are missing its events, which is reported through their
+ * counters.
+ */
+class ClusterAcks {
+
+    private final int clusterCount;
+    private final int requiredAcks;
+    private int successCount;
+    private int failureCount;
+    private Exception lastFailure;
+    // whether the sink has given up waiting, in which case the batch is rolled back.
+    private boolean abandoned;
+    // clusters which failed before the batch was committed, with the number of events they missed.
+    private final List<KafkaClusterCounter> failedCounters = new ArrayList<KafkaClusterCounter>();
+    private final List<Integer> failedEventCounts = new ArrayList<Integer>();
+
+    /**
+     * @param clusterCount number of clusters the batch is published to.
+     * @param requiredAcks number of clusters that should acknowledge the batch.
+     */
+    ClusterAcks(int clusterCount, int requiredAcks) {
+        this.clusterCount = clusterCount;
+        this.requiredAcks = requiredAcks;
+    }
+
+    synchronized void success() {
+        successCount++;
+        notifyAll();
+    }
+
+    /**
+     * @param counter counter of the cluster which failed to publish the batch.
+     * @param eventCount number of events of the batch.
+     */
+    synchronized void failure(KafkaClusterCounter counter, int eventCount, Exception e) {
+        failureCount++;
+        lastFailure = e;
+        if (!abandoned) {
+            if (successCount >= requiredAcks) {
+                // a lagging cluster failed after the batch was committed.
+                counter.addToEventUnreplicatedCount(eventCount);
+            } else {
+                failedCounters.add(counter);
+                failedEventCounts.add(eventCount);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Wait until the required number of clusters acknowledge the batch, or until enough
+     * of them fail, making it impossible to get the required acknowledgements.
+     * @param timeoutMillis maximum time to wait for the acknowledgements.
+     * @throws Exception the last failure if the batch could not be acknowledged, or a
+     * <code>TimeoutException</code> if it was not acknowledged in time.
+     */
+    synchronized void await(long timeoutMillis) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (successCount < requiredAcks && clusterCount - failureCount >= requiredAcks) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                abandon();
+                throw new TimeoutException("Only " + successCount + " of the " + requiredAcks +
+                        " required clusters acknowledged the batch within " + timeoutMillis + " ms.");
+            }
+            wait(remaining);
+        }
+        if (successCount < requiredAcks) {
+            abandon();
+            throw lastFailure;
+        }
+        // the batch is committed, so the clusters which failed are missing its events.
+        for (int i = 0; i < failedCounters.size(); i++) {
+            failedCounters.get(i).addToEventUnreplicatedCount(failedEventCounts.get(i));
+        }
+        failedCounters.clear();
+        failedEventCounts.clear();
+    }
+
+    private void abandon() {
+        abandoned = true;
+        failedCounters.clear();
+        failedEventCounts.clear();
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import kafka.producer.KeyedMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes to one of a list of clusters at a time, in the order of preference. The first cluster
+ * is the primary and the rest are standbys.
+ *
+ * The send latency and the error rate of the active cluster are tracked as exponentially weighted
+ * moving averages. When either of them exceeds its threshold, the next cluster in the list becomes
+ * active. A cluster whose circuit breaker is open is unhealthy as well. While a standby is active, the
+ * primary is probed in the background and the sink fails back to the primary after a number of consecutive
+ * successful probes, unless its circuit breaker is still open.
+ */
+public class ClusterFailover {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterFailover.class);
+    // weight of the latest sample in the moving averages.
+    private static final double EWMA_WEIGHT = 0.2;
+
+    private final List<KafkaCluster> clusters;
+    private final ClusterHealth[] health;
+    private final long latencyThresholdMs;
+    private final double errorRateThreshold;
+    private final int minSamples;
+    private final long probeIntervalMs;
+    private final int failbackProbes;
+    private final KafkaSinkCounter sinkCounter;
+    private volatile int activeIndex;
+    private int successfulProbes;
+    private ScheduledExecutorService prober;
+
+    /**
+     * @param clusters clusters in the order of preference.
+     * @param latencyThresholdMs average send latency that makes a cluster unhealthy.
+     * @param errorRateThreshold average error rate(0 - 1) that makes a cluster unhealthy.
+     * @param minSamples minimum number of sends to a cluster before its health is evaluated.
+     * @param probeIntervalMs interval between the probes of the primary while it's not active.
+     * @param failbackProbes number of consecutive successful probes before failing back to the primary.
+     * @param sinkCounter counter to report the switches and the active cluster.
+     */
+    public ClusterFailover(List<KafkaCluster> clusters, long latencyThresholdMs, double errorRateThreshold,
+                           int minSamples, long probeIntervalMs, int failbackProbes, KafkaSinkCounter sinkCounter) {
+        this.clusters = clusters;
+        this.latencyThresholdMs = latencyThresholdMs;
+        this.errorRateThreshold = errorRateThreshold;
+        this.minSamples = minSamples;
+        this.probeIntervalMs = probeIntervalMs;
+        this.failbackProbes = failbackProbes;
+        this.sinkCounter = sinkCounter;
+        health = new ClusterHealth[clusters.size()];
+        for (int i = 0; i < health.length; i++) {
+            health[i] = new ClusterHealth();
+        }
+    }
+
+    public void start(String sinkName) {
+        activeIndex = 0;
+        sinkCounter.setActiveCluster(activeIndex);
+        prober = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat(sinkName + "-failover-prober").setDaemon(true).build());
+        prober.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                probePrimary();
+            }
+        }, probeIntervalMs, probeIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (prober != null) {
+            prober.shutdownNow();
+            prober = null;
+        }
+    }
+
+    /**
+     * Publish the messages to the active cluster. On failure, the batch is expected to be rolled back and
+     * retried, by which time the sink may have switched to another cluster.
+     * @param lane the clusters, or the urgent producers of the clusters in the same order.
+     */
+    public void publish(List<KafkaCluster> lane, List<KeyedMessage<String, Object>> messages) {
+        int index = activeIndex;
+        if (clusters.get(index).isCircuitOpen()) {
+            switchFrom(index, "circuit breaker is open");
+            index = activeIndex;
+        }
+        KafkaCluster cluster = lane.get(index);
+        long start = System.currentTimeMillis();
+        boolean success = false;
+        try {
+            cluster.send(messages);
+            success = true;
+        } finally {
+            if (health[index].record(success, System.currentTimeMillis() - start)) {
+                switchFrom(index, health[index].toString());
+            }
+        }
+    }
+
+    /**
+     * @return the cluster currently published to.
+     */
+    public KafkaCluster getActiveCluster() {
+        return clusters.get(activeIndex);
+    }
+
+    /**
+     * @return <code>false</code> if the circuit breakers of all the clusters reject the sends at the moment.
+     */
+    public boolean isCallPermitted() {
+        for (KafkaCluster cluster : clusters) {
+            if (cluster.isCallPermitted()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void switchFrom(int index, String reason) {
+        // another thread may have switched already.
+        if (index != activeIndex) {
+            return;
+        }
+        // skip the clusters whose circuit breakers are open, if there's any other.
+        int next = (index + 1) % clusters.size();
+        for (int i = 1; i < clusters.size(); i++) {
+            int candidate = (index + i) % clusters.size();
+            if (!clusters.get(candidate).isCircuitOpen()) {
+                next = candidate;
+                break;
+            }
+        }
+        if (next == index) {
+            return;
+        }
+        health[next].reset();
+        successfulProbes = 0;
+        activeIndex = next;
+        sinkCounter.incrementClusterSwitchCount();
+        sinkCounter.setActiveCluster(next);
+        logger.warn("Cluster " + clusters.get(index).getName() + " is unhealthy(" + reason +
+                "). Switched to the cluster " + clusters.get(next).getName());
+    }
+
+    private void probePrimary() {
+        if (activeIndex == 0) {
+            return;
+        }
+        KafkaCluster primary = clusters.get(0);
+        boolean reachable = primary.probe((int) Math.min(Integer.MAX_VALUE, probeIntervalMs));
+        synchronized (this) {
+            successfulProbes = reachable ? successfulProbes + 1 : 0;
+            if (successfulProbes >= failbackProbes && activeIndex != 0 && !primary.isCircuitOpen()) {
+                health[0].reset();
+                successfulProbes = 0;
+                activeIndex = 0;
+                sinkCounter.incrementClusterSwitchCount();
+                sinkCounter.setActiveCluster(0);
+                logger.info("Primary cluster " + primary.getName() + " is reachable again. Failed back to it.");
+            }
+        }
+    }
+
+    /**
+     * Moving averages of the latency and the error rate of a cluster.
+     */
+    private class ClusterHealth {
+        private double latency;
+        private double errorRate;
+        private int samples;
+
+        /**
+         * Record the outcome of a send.
+         * @return <code>true</code> if the cluster became unhealthy.
+         */
+        private synchronized boolean record(boolean success, long latencyMs) {
+            double error = success ? 0 : 1;
+            if (samples == 0) {
+                // start the averages from the first sample
+                latency = latencyMs;
+                errorRate = error;
+            } else {
+                latency = EWMA_WEIGHT * latencyMs + (1 - EWMA_WEIGHT) * latency;
+                errorRate = EWMA_WEIGHT * error + (1 - EWMA_WEIGHT) * errorRate;
+            }
+            samples++;
+            return samples >= minSamples && (latency > latencyThresholdMs || errorRate > errorRateThreshold);
+        }
+
+        private synchronized void reset() {
+            latency = 0;
+            errorRate = 0;
+            samples = 0;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "average latency: " + Math.round(latency) + "ms, error rate: " + errorRate;
+        }
+    }
+}
@@ -26,4 +26,109 @@ public class Constants {
     public static final String DEFAULT_TOPIC = "default-flume-topic";
     public static final String PREPROCESSOR = "preprocessor";
     public static final String TOPIC = "topic";
+    public static final String BATCH_SIZE = "batch.size";
+    public static final String PREPROCESSOR_THREADS = "preprocessor.threads";
+    public static final String PRODUCER_SHARED = "producer.shared";
+    public static final String PIPELINE_DEPTH = "pipeline.depth";
+    public static final String CLUSTERS = "clusters";
+    public static final String CLUSTERS_PREFIX = "clusters.";
+    public static final String CLUSTERS_COMMIT_POLICY = "clusters.commit.policy";
+    public static final String CLUSTERS_MAX_PENDING_BATCHES = "clusters.max.pending.batches";
+    public static final String CLUSTERS_ACK_TIMEOUT_MS = "clusters.ack.timeout.ms";
+    public static final String CLUSTERS_MODE = "clusters.mode";
+    public static final String FAILOVER_LATENCY_THRESHOLD_MS = "failover.latency.threshold.ms";
+    public static final String FAILOVER_ERROR_RATE_THRESHOLD = "failover.error.rate.threshold";
+    public static final String FAILOVER_MIN_SAMPLES = "failover.min.samples";
+    public static final String FAILOVER_PROBE_INTERVAL_MS = "failover.probe.interval.ms";
+    public static final String FAILOVER_FAILBACK_PROBES = "failover.failback.probes";
+    public static final String BREAKER_ENABLED = "breaker.enabled";
+    public static final String BREAKER_FAILURE_RATE_THRESHOLD = "breaker.failure.rate.threshold";
+    public static final String BREAKER_WINDOW_SIZE = "breaker.window.size";
+    public static final String BREAKER_MIN_CALLS = "breaker.min.calls";
+    public static final String BREAKER_OPEN_MS = "breaker.open.ms";
+    public static final String BREAKER_HALF_OPEN_PROBES = "breaker.half.open.probes";
+    public static final String PRIORITY_HEADER = "priority.header";
+    public static final String PRIORITY_THRESHOLD = "priority.threshold";
+    public static final String PRIORITY_PREFIX = "priority.";
+    public static final String PRIORITY_LANE_URGENT = "urgent";
+    public static final String TIMESTAMP_HEADER = "timestamp";
+    public static final String DEDUP_ENABLED = "dedup.enabled";
+    public static final String DEDUP_HEADER = "dedup.header";
+    public static final String DEDUP_CAPACITY = "dedup.capacity";
+    public static final String DEDUP_CHUNK_SIZE = "dedup.chunk.size";
+    public static final String ROLLUP_ENABLED = "rollup.enabled";
+    public static final String ROLLUP_TOPIC = "rollup.topic";
+    public static final String ROLLUP_WINDOW_MS = "rollup.window.ms";
+    public static final String ROLLUP_DIMENSIONS = "rollup.dimensions";
+    public static final String ROLLUP_MAX_GROUPS = "rollup.max.groups";
+    public static final String ROLLUP_RAW = "rollup.raw";
+    public static final String OVERSIZE_POLICY = "oversize.policy";
+    public static final String OVERSIZE_MAX_BYTES = "oversize.max.bytes";
+    public static final String OVERSIZE_CODEC = "oversize.codec";
+    public static final String OVERSIZE_MAX_CHUNKS = "oversize.max.chunks";
+    public static final String DRAIN_TIMEOUT_MS = "drain.timeout.ms";
+    public static final String TOPIC_CACHE_ENABLED = "topic.cache.enabled";
+    public static final String TOPIC_CACHE_CAPACITY = "topic.cache.capacity";
+    public static final String TOPIC_CACHE_RETRY_MS = "topic.cache.retry.ms";
+    public static final String TOPIC_CREATION_RATE = "topic.creation.rate";
+    public static final String TOPIC_CREATION_BURST = "topic.creation.burst";
+    public static final String TOPIC_OVERFLOW = "topic.overflow";
+    public static final String RELOAD_FILE = "reload.file";
+    public static final String RELOAD_INTERVAL_MS = "reload.interval.ms";
+    public static final String COALESCE = "coalesce";
+    public static final String RATE_LIMIT_DEFAULT = "ratelimit.default";
+    public static final String RATE_LIMIT_TOPIC_PREFIX = "ratelimit.topic.";
+    public static final String RATE_LIMIT_BURST_SECONDS = "ratelimit.burst.seconds";
+    public static final String RATE_LIMIT_MAX_WAIT_MS = "ratelimit.max.wait.ms";
+    public static final String RATE_LIMIT_MAX_TOPICS = "ratelimit.max.topics";
+
+    /* Defaults */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final String DEFAULT_CLUSTER = "default";
+    public static final int DEFAULT_CLUSTERS_MAX_PENDING_BATCHES = 10;
+    public static final long DEFAULT_CLUSTERS_ACK_TIMEOUT_MS = 30000;
+    public static final long DEFAULT_FAILOVER_LATENCY_THRESHOLD_MS = 5000;
+    public static final double DEFAULT_FAILOVER_ERROR_RATE_THRESHOLD = 0.5;
+    public static final int DEFAULT_FAILOVER_MIN_SAMPLES = 5;
+    public static final long DEFAULT_FAILOVER_PROBE_INTERVAL_MS = 10000;
+    public static final int DEFAULT_FAILOVER_FAILBACK_PROBES = 3;
+    public static final int DEFAULT_PRIORITY_THRESHOLD = 2;
+    public static final long DEFAULT_RELOAD_INTERVAL_MS = 10000;
+    public static final int DEFAULT_DEDUP_CAPACITY = 100000;
+    public static final int DEFAULT_DEDUP_CHUNK_SIZE = 10;
+    public static final String DEFAULT_ROLLUP_TOPIC = "rollup";
+    public static final long DEFAULT_ROLLUP_WINDOW_MS = 60000;
+    public static final int DEFAULT_ROLLUP_MAX_GROUPS = 10000;
+    public static final int DEFAULT_OVERSIZE_MAX_BYTES = 1000000;
+    public static final String DEFAULT_OVERSIZE_CODEC = "gzip";
+    public static final int DEFAULT_OVERSIZE_MAX_CHUNKS = 100;
+    public static final long DEFAULT_DRAIN_TIMEOUT_MS = 30000;
+    public static final long DEFAULT_RATE_LIMIT_MAX_WAIT_MS = 1000;
+    public static final int DEFAULT_RATE_LIMIT_MAX_TOPICS = 10000;
+    public static final int DEFAULT_TOPIC_CACHE_CAPACITY = 1000;
+    public static final long DEFAULT_TOPIC_CACHE_RETRY_MS = 30000;
+    public static final double DEFAULT_TOPIC_CREATION_RATE = 1;
+    public static final int DEFAULT_TOPIC_CREATION_BURST = 10;
+    public static final double DEFAULT_BREAKER_FAILURE_RATE_THRESHOLD = 0.5;
+    public static final int DEFAULT_BREAKER_WINDOW_SIZE = 10;
+    public static final int DEFAULT_BREAKER_MIN_CALLS = 5;
+    public static final long DEFAULT_BREAKER_OPEN_MS = 30000;
+    public static final int DEFAULT_BREAKER_HALF_OPEN_PROBES = 1;
+
+    /* Rollup dimensions other than the headers */
+    public static final String ROLLUP_DIMENSION_TOPIC = "@topic";
+    public static final String ROLLUP_DIMENSION_KEY = "@key";
+
+    /* Policies for the messages over the size limit */
+    public static final String OVERSIZE_POLICY_COMPRESS = "compress";
+    public static final String OVERSIZE_POLICY_SPLIT = "split";
+    public static final String OVERSIZE_POLICY_COMPRESS_SPLIT = "compress-split";
+
+    /* Commit policies when publishing to multiple clusters */
+    public static final String COMMIT_POLICY_ALL = "all";
+    public static final String COMMIT_POLICY_QUORUM = "quorum";
+
+    /* Modes of publishing to multiple clusters */
+    public static final String CLUSTERS_MODE_FANOUT = "fanout";
+    public static final String CLUSTERS_MODE_FAILOVER = "failover";
 }
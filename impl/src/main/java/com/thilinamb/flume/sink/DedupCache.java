@@ -0,0 +1,167 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+/**
+ * A bounded multiset of the 64 bit ids of the events acknowledged by Kafka as part of a batch that
+ * was rolled back. The ids are kept in an open addressing hash table of primitive longs, so the
+ * memory used is fixed by the capacity (about 24 bytes per entry) and no objects are allocated per
+ * event. Once the capacity is reached, the oldest id is evicted.
+ *
+ * An id is added once per acknowledged event and removed once per redelivered event skipped, so two
+ * events with the same id in a batch are handled independently.
+ * Since only the 64 bit hashes of the events are kept, two different events may share an id. The
+ * probability that a new event is mistaken for a duplicate is about <code>size / 2^64</code>.
+ */
+public class DedupCache {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    // 0 marks an empty slot, so an id of 0 is stored as this instead.
+    private static final long ZERO_ID = 0x9e3779b97f4a7c15L;
+
+    private final long[] table;
+    private final int mask;
+    // ids in the insertion order, to evict the oldest.
+    private final long[] ring;
+    private int ringPosition;
+    private int size;
+
+    /**
+     * @param capacity maximum number of ids remembered.
+     */
+    public DedupCache(int capacity) {
+        int tableSize = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1;
+        this.table = new long[tableSize];
+        this.mask = tableSize - 1;
+        this.ring = new long[capacity];
+    }
+
+    public synchronized boolean contains(long id) {
+        id = normalize(id);
+        for (int i = slot(id); table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remember an id. An id already present is added once more.
+     */
+    public synchronized void add(long id) {
+        id = normalize(id);
+        // the oldest id is evicted unless it was removed already.
+        long oldest = ring[ringPosition];
+        if (oldest != 0 && removeId(oldest)) {
+            size--;
+        }
+        int i = slot(id);
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = id;
+        size++;
+        ring[ringPosition] = id;
+        ringPosition = (ringPosition + 1) % ring.length;
+    }
+
+    /**
+     * Remove one occurrence of an id.
+     * @return <code>false</code> if the id is not present.
+     */
+    public synchronized boolean remove(long id) {
+        if (removeId(normalize(id))) {
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Remove an id, shifting back the following ids of the probe sequence to fill the gap.
+     * @return <code>false</code> if the id is not present.
+     */
+    private boolean removeId(long id) {
+        int i = slot(id);
+        while (table[i] != id) {
+            if (table[i] == 0) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        int gap = i;
+        for (i = (i + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+            int home = slot(table[i]);
+            // move the id into the gap unless its home slot lies cyclically between the gap and itself.
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                table[gap] = table[i];
+                gap = i;
+            }
+        }
+        table[gap] = 0;
+        return true;
+    }
+
+    private int slot(long id) {
+        return (int) mix(id) & mask;
+    }
+
+    private static long normalize(long id) {
+        return id == 0 ? ZERO_ID : id;
+    }
+
+    /**
+     * 64 bit hash of an event id.
+     */
+    public static long hash(String id) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * 64 bit hash of an event body.
+     */
+    public static long hash(byte[] body) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : body) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,296 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import kafka.javaapi.TopicMetadataRequest;
+import kafka.javaapi.TopicMetadataResponse;
+import kafka.javaapi.consumer.SimpleConsumer;
+import kafka.javaapi.producer.Producer;
+import kafka.producer.KeyedMessage;
+import kafka.producer.ProducerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Kafka cluster the sink publishes to, along with the producer used to publish to it.
+ *
+ * When the sink publishes to multiple clusters, each cluster publishes from its own thread, so that
+ * the clusters are written to in parallel and a slow cluster does not hold back the others.
+ * Batches are published in the order they are submitted.
+ */
+public class KafkaCluster {
+
+    private static final Logger logger = LoggerFactory.getLogger(KafkaCluster.class);
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+    private static final int PROBE_BUFFER_SIZE = 64 * 1024;
+
+    private final String name;
+    private final String sinkName;
+    private final Properties producerProps;
+    private final boolean sharedProducer;
+    private final int maxPendingBatches;
+    private final KafkaClusterCounter counter;
+    private final AtomicInteger pendingBatches = new AtomicInteger();
+    private Producer<String, Object> producer;
+    private ExecutorService sender;
+    private boolean monitored;
+    private CircuitBreaker circuitBreaker;
+
+    /**
+     * @param name name of the cluster
+     * @param sinkName name of the sink, used to name the counters and threads.
+     * @param producerProps Kafka Producer properties of the cluster
+     * @param sharedProducer whether to use a producer from the <code>ProducerRegistry</code>.
+     * @param maxPendingBatches maximum number of batches waiting to be published to the cluster.
+     */
+    public KafkaCluster(String name, String sinkName, Properties producerProps, boolean sharedProducer,
+                        int maxPendingBatches) {
+        this.name = name;
+        this.sinkName = sinkName;
+        this.producerProps = producerProps;
+        this.sharedProducer = sharedProducer;
+        this.maxPendingBatches = maxPendingBatches;
+        this.counter = new KafkaClusterCounter(sinkName + "-" + name);
+    }
+
+    /**
+     * Create the producer.
+     * @param async whether the batches are submitted to be published from a separate thread.
+     * @param monitored whether to expose the counters of the cluster.
+     */
+    public void start(boolean async, boolean monitored) {
+        if (sharedProducer) {
+            producer = ProducerRegistry.getInstance().acquire(producerProps);
+        } else {
+            producer = new Producer<String, Object>(new ProducerConfig(producerProps));
+        }
+        if (async) {
+            sender = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat(sinkName + "-" + name + "-sender").setDaemon(true).build());
+        }
+        this.monitored = monitored;
+        if (monitored) {
+            counter.start();
+        }
+    }
+
+    public void stop() {
+        stop(TimeUnit.SECONDS.toMillis(STOP_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * Publish the pending batches and close the producer, giving up once the timeout passes.
+     * @param timeoutMillis maximum time to wait for the pending batches and for closing the producer.
+     * @return number of events of the pending batches which were not published in time.
+     */
+    public long stop(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long leftover = 0;
+        if (sender != null) {
+            sender.shutdown();
+            try {
+                if (!sender.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS)) {
+                    // interrupt the batch being published and discard the rest.
+                    leftover = counter.getPendingEventCount();
+                    int discarded = sender.shutdownNow().size();
+                    logger.warn("Pending batches of the cluster " + name + " were not published in time. " +
+                            "Discarded " + discarded + " batches, " + leftover + " events in total.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sender = null;
+        }
+        if (monitored) {
+            counter.stop();
+        }
+        // an async producer publishes its queued messages on close, which is bounded by the deadline as well.
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (sharedProducer) {
+                    ProducerRegistry.getInstance().release(producerProps);
+                } else {
+                    producer.close();
+                }
+            }
+        }, sinkName + "-" + name + "-closer");
+        closer.setDaemon(true);
+        closer.start();
+        try {
+            closer.join(Math.max(1, deadline - System.currentTimeMillis()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (closer.isAlive()) {
+            logger.warn("The producer of the cluster " + name + " did not close in time. The messages still " +
+                    "queued in the producer may be lost.");
+        }
+        return leftover;
+    }
+
+    /**
+     * Publish a batch from the current thread.
+     */
+    public void send(List<KeyedMessage<String, Object>> messages) {
+        long permit = circuitBreaker == null ? CircuitBreaker.REJECTED : circuitBreaker.tryAcquire();
+        if (circuitBreaker != null && permit == CircuitBreaker.REJECTED) {
+            throw new IllegalStateException("Circuit breaker of the cluster " + name + " is open.");
+        }
+        long start = System.currentTimeMillis();
+        try {
+            producer.send(messages);
+            counter.addToEventSendSuccessCount(messages.size());
+            if (circuitBreaker != null) {
+                circuitBreaker.onSuccess(permit);
+            }
+        } catch (RuntimeException e) {
+            counter.addToEventSendFailureCount(messages.size());
+            if (circuitBreaker != null) {
+                circuitBreaker.onFailure(permit);
+            }
+            throw e;
+        } finally {
+            counter.recordSend(System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the circuit breaker of the cluster would reject a send at the moment.
+     */
+    public boolean isCallPermitted() {
+        return circuitBreaker == null || circuitBreaker.isCallPermitted();
+    }
+
+    /**
+     * @return <code>true</code> if the circuit breaker of the cluster is open.
+     */
+    public boolean isCircuitOpen() {
+        return circuitBreaker != null && circuitBreaker.getState() == CircuitBreaker.State.OPEN;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Guard the sends to the cluster with a circuit breaker.
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Submit a batch to be published from the thread of the cluster. The outcome is reported to
+     * the given acks. If the cluster already has the maximum number of pending batches, the batch
+     * is not submitted and reported as failed.
+     */
+    public void submit(final List<KeyedMessage<String, Object>> messages, final ClusterAcks acks) {
+        if (pendingBatches.incrementAndGet() > maxPendingBatches) {
+            pendingBatches.decrementAndGet();
+            counter.addToEventDroppedCount(messages.size());
+            acks.failure(counter, messages.size(),
+                    new IllegalStateException("Cluster " + name + " has too many pending batches."));
+            return;
+        }
+        counter.addToPendingEventCount(messages.size());
+        sender.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    send(messages);
+                    acks.success();
+                } catch (Exception e) {
+                    logger.warn("Failed to publish " + messages.size() + " messages to the cluster " + name, e);
+                    acks.failure(counter, messages.size(), e);
+                } finally {
+                    counter.addToPendingEventCount(-messages.size());
+                    pendingBatches.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Check whether the cluster is reachable, by requesting the cluster metadata from the brokers
+     * in "metadata.broker.list" until one of them responds.
+     * @param timeoutMs socket timeout for each broker
+     * @return <code>true</code> if a broker responded.
+     */
+    public boolean probe(int timeoutMs) {
+        return requestMetadata(Collections.<String>emptyList(), timeoutMs) != null;
+    }
+
+    /**
+     * Request the metadata of the given topics from the brokers in "metadata.broker.list" until one
+     * of them responds. If the brokers auto create topics, this creates the missing topics.
+     * @param topics topics to request the metadata of, or an empty list for the cluster metadata.
+     * @param timeoutMs socket timeout for each broker
+     * @return the response, or <code>null</code> if no broker responded.
+     */
+    public TopicMetadataResponse requestMetadata(List<String> topics, int timeoutMs) {
+        String brokerList = producerProps.getProperty("metadata.broker.list", "");
+        for (String broker : brokerList.split(",")) {
+            broker = broker.trim();
+            int separator = broker.lastIndexOf(':');
+            if (separator < 0) {
+                continue;
+            }
+            SimpleConsumer consumer = null;
+            try {
+                consumer = new SimpleConsumer(broker.substring(0, separator),
+                        Integer.parseInt(broker.substring(separator + 1)), timeoutMs, PROBE_BUFFER_SIZE,
+                        sinkName + "-" + name + "-probe");
+                return consumer.send(new TopicMetadataRequest(topics));
+            } catch (Exception e) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Requesting the metadata from the broker " + broker + " of the cluster " + name +
+                            " failed.", e);
+                }
+            } finally {
+                if (consumer != null) {
+                    consumer.close();
+                }
+            }
+        }
+        return null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Properties getProducerProps() {
+        return producerProps;
+    }
+
+    public KafkaClusterCounter getCounter() {
+        return counter;
+    }
+}
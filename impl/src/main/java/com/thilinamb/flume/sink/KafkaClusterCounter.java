@@ -0,0 +1,111 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * Counters of a Kafka cluster a sink publishes to, when publishing to multiple clusters.
+ * The pending events are the events submitted to the cluster but not acknowledged yet, which
+ * is how far the cluster lags behind the sink. The unreplicated events are the events of the
+ * committed batches which the cluster failed to publish.
+ */
+public class KafkaClusterCounter extends MonitoredCounterGroup implements KafkaClusterCounterMBean {
+
+    private static final String COUNTER_EVENT_SEND_SUCCESS = "cluster.event.send.success";
+    private static final String COUNTER_EVENT_SEND_FAILURE = "cluster.event.send.failure";
+    private static final String COUNTER_EVENT_DROPPED = "cluster.event.dropped";
+    private static final String COUNTER_EVENT_UNREPLICATED = "cluster.event.unreplicated";
+    private static final String COUNTER_PENDING_EVENTS = "cluster.pending.events";
+    private static final String COUNTER_SEND_LATENCY = "cluster.send.latency.ms";
+    private static final String COUNTER_SEND_TIME = "cluster.send.time.ms";
+
+    private static final String[] ATTRIBUTES = {
+            COUNTER_EVENT_SEND_SUCCESS, COUNTER_EVENT_SEND_FAILURE, COUNTER_EVENT_DROPPED,
+            COUNTER_EVENT_UNREPLICATED, COUNTER_PENDING_EVENTS, COUNTER_SEND_LATENCY, COUNTER_SEND_TIME
+    };
+
+    public KafkaClusterCounter(String name) {
+        super(Type.OTHER, name, ATTRIBUTES);
+    }
+
+    @Override
+    public long getEventSendSuccessCount() {
+        return get(COUNTER_EVENT_SEND_SUCCESS);
+    }
+
+    public long addToEventSendSuccessCount(long delta) {
+        return addAndGet(COUNTER_EVENT_SEND_SUCCESS, delta);
+    }
+
+    @Override
+    public long getEventSendFailureCount() {
+        return get(COUNTER_EVENT_SEND_FAILURE);
+    }
+
+    public long addToEventSendFailureCount(long delta) {
+        return addAndGet(COUNTER_EVENT_SEND_FAILURE, delta);
+    }
+
+    @Override
+    public long getEventDroppedCount() {
+        return get(COUNTER_EVENT_DROPPED);
+    }
+
+    public long addToEventDroppedCount(long delta) {
+        return addAndGet(COUNTER_EVENT_DROPPED, delta);
+    }
+
+    @Override
+    public long getEventUnreplicatedCount() {
+        return get(COUNTER_EVENT_UNREPLICATED);
+    }
+
+    public long addToEventUnreplicatedCount(long delta) {
+        return addAndGet(COUNTER_EVENT_UNREPLICATED, delta);
+    }
+
+    @Override
+    public long getPendingEventCount() {
+        return get(COUNTER_PENDING_EVENTS);
+    }
+
+    public long addToPendingEventCount(long delta) {
+        return addAndGet(COUNTER_PENDING_EVENTS, delta);
+    }
+
+    @Override
+    public long getSendLatencyMillis() {
+        return get(COUNTER_SEND_LATENCY);
+    }
+
+    /**
+     * Record the latency of a send.
+     * @param latency latency of the last send in milliseconds.
+     */
+    public void recordSend(long latency) {
+        set(COUNTER_SEND_LATENCY, latency);
+        addAndGet(COUNTER_SEND_TIME, latency);
+    }
+
+    @Override
+    public long getSendTimeMillis() {
+        return get(COUNTER_SEND_TIME);
+    }
+}
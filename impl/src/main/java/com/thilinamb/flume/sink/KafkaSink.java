@@ -18,17 +18,45 @@
 
 package com.thilinamb.flume.sink;
 
-import kafka.javaapi.producer.Producer;
+import com.thilinamb.flume.sink.avro.AvroConstants;
+import com.thilinamb.flume.sink.avro.AvroConverter;
+import com.thilinamb.flume.sink.avro.CachingSchemaRegistry;
+import com.thilinamb.flume.sink.avro.FileSchemaRegistry;
+import com.thilinamb.flume.sink.avro.SchemaRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import kafka.producer.KeyedMessage;
-import kafka.producer.ProducerConfig;
 import org.apache.flume.*;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.sink.AbstractSink;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A Flume Sink that can publish messages to Kafka.
@@ -39,85 +67,935 @@ import java.util.Properties;
  * Without implementing this extension point(MessagePreprocessor), it's possible to publish
  * messages based on a static topic. In this case messages will be published to a random
  * partition.
+ * Optionally the messages can be converted into Avro binary before publishing, using a
+ * schema selected based on the topic(See <code>SchemaRegistry</code>).
+ * Events are taken from the channel in batches and each batch is published within a single
+ * transaction. Preprocessing of a batch can be spread across a thread pool, in which case the
+ * preprocessor implementation should be thread safe. The order of the events is preserved.
+ * The same messages can be published to multiple Kafka clusters, each with its own producer, or
+ * to one of them at a time, failing over to a standby cluster when the active one is unhealthy.
  */
 public class KafkaSink extends AbstractSink implements Configurable {
 
     private static final Logger logger = LoggerFactory.getLogger(KafkaSink.class);
+    private static final long PIPELINE_BACKOFF_MS = 100;
+    private static final long PIPELINE_MAX_BACKOFF_MS = 5000;
     private Properties producerProps;
-    private Producer<String, String> producer;
-    private MessagePreprocessor messagePreProcessor;
-    private String topic;
+    private List<KafkaCluster> clusters;
+    private int requiredAcks;
+    private long ackTimeout;
+    private ClusterFailover failover;
+    // urgent producers of the clusters, in the same order as the clusters.
+    private List<KafkaCluster> urgentClusters;
+    private String priorityHeader;
+    private int priorityThreshold;
+    private DedupCache dedupCache;
+    private String dedupHeader;
+    private int dedupChunkSize;
+    private RollupAggregator rollup;
+    private OversizeHandler oversizeHandler;
+    private TopicCache topicCache;
+    private boolean rollupRaw;
+    private AvroConverter avroConverter;
     private Context context;
+    private int batchSize;
+    private int preprocessorThreads;
+    private ExecutorService preprocessorExecutor;
+    private volatile RoutingConfig routing;
+    private File reloadFile;
+    private long reloadInterval;
+    private long reloadFileModified;
+    private volatile long nextReloadCheck;
+    private final Object reloadLock = new Object();
+    private KafkaSinkCounter counter;
+    private int pipelineDepth;
+    private BatchSequencer sequencer;
+    private volatile boolean pipelineRunning;
+    private long drainTimeout;
+    private long maxThrottleWait;
+    // set on stop, so that no more events are taken from the channel.
+    private volatile boolean draining;
+    // set on stop. Once it passes, the batches in flight are rolled back instead of published.
+    private volatile long drainDeadline = Long.MAX_VALUE;
+    private final AtomicInteger inFlightEvents = new AtomicInteger();
+    private List<Thread> pipelineThreads;
 
     @Override
     public Status process() throws EventDeliveryException {
+        if (reloadFile != null) {
+            reloadIfChanged();
+        }
+        // the current rollup window is published by stop.
+        if (rollup != null && !draining) {
+            publishRollup(false);
+        }
+        return processBatch();
+    }
+
+    /**
+     * Take a batch of events from the channel, publish them and commit. In the pipelined mode, this is
+     * invoked concurrently by the sink runner and the pipeline threads, and the batches are published and
+     * committed in the order they were taken.
+     */
+    private Status processBatch() throws EventDeliveryException {
+        if (draining) {
+            return Status.BACKOFF;
+        }
+        // fail fast without taking any events while the circuit breakers are open.
+        if (!canPublish()) {
+            counter.incrementBreakerRejectedCount();
+            return Status.BACKOFF;
+        }
         Status result = Status.READY;
+        // every message of the batch is published with the same routing config, even if it's reloaded meanwhile.
+        RoutingConfig routing = this.routing;
         Channel channel = getChannel();
         Transaction transaction = channel.getTransaction();
-        Event event = null;
-        String eventTopic = topic;
-        String eventKey = null;
+        List<Event> events = new ArrayList<Event>(batchSize);
+        long ticket = -1;
+        int inFlight = 0;
+        // ids of the events acknowledged by Kafka in this attempt, which are skipped if the batch is redelivered.
+        List<Long> skippedIds = null;
+        List<Long> acknowledgedIds = null;
+        // topics and keys extracted from the events while preparing the messages, reused by the rollup.
+        Map<Event, TopicKey> eventTopics = null;
 
         try {
             transaction.begin();
-            event = channel.take();
-
-            if (event != null) {
-                // get the message body.
-                String eventBody = new String(event.getBody());
-                // if the metadata extractor is set, extract the topic and the key.
-                if (messagePreProcessor != null) {
-                    eventBody = messagePreProcessor.transformMessage(event, context);
-                    eventTopic = messagePreProcessor.extractTopic(event, context);
-                    eventKey = messagePreProcessor.extractKey(event, context);
-                }
-                // log the event for debugging
-                if (logger.isDebugEnabled()) {
-                    logger.debug("{Event} " + eventBody);
+            if (sequencer != null) {
+                sequencer.lockTake();
+            }
+            try {
+                // drain a batch of events from the channel.
+                for (int i = 0; i < batchSize; i++) {
+                    Event event = channel.take();
+                    if (event == null) {
+                        break;
+                    }
+                    events.add(event);
+                }
+                if (sequencer != null && !events.isEmpty()) {
+                    ticket = sequencer.nextTicket();
+                }
+                inFlight = events.size();
+                inFlightEvents.addAndGet(inFlight);
+            } finally {
+                if (sequencer != null) {
+                    sequencer.unlockTake();
+                }
+            }
+            long takeTime = System.currentTimeMillis();
+
+            if (!events.isEmpty()) {
+                if (events.size() < batchSize) {
+                    counter.incrementBatchUnderflowCount();
+                } else {
+                    counter.incrementBatchCompleteCount();
+                }
+                counter.addToEventDrainAttemptCount(events.size());
+                // in the rollup only mode, the raw events are not published at all.
+                if (rollup == null || rollupRaw) {
+                    // skip the events already acknowledged by Kafka before a rollback.
+                    List<Event> pending = events;
+                    Map<KeyedMessage<String, Object>, Long> messageIds = null;
+                    long[] ids = null;
+                    if (dedupCache != null) {
+                        ids = new long[events.size()];
+                        skippedIds = new ArrayList<Long>();
+                        acknowledgedIds = new ArrayList<Long>();
+                        pending = skipDuplicates(events, ids, skippedIds);
+                    }
+                    // topics extracted from the events, for the messages published to the overflow topic instead.
+                    Map<KeyedMessage<String, Object>, String> overflowTopics = topicCache == null ? null :
+                            Collections.synchronizedMap(new IdentityHashMap<KeyedMessage<String, Object>, String>());
+                    if (rollup != null) {
+                        eventTopics = Collections.synchronizedMap(new IdentityHashMap<Event, TopicKey>());
+                    }
+                    List<KeyedMessage<String, Object>> messages = pending.isEmpty() ?
+                            Collections.<KeyedMessage<String, Object>>emptyList() :
+                            prepareMessages(routing, pending, overflowTopics, eventTopics);
+                    if (avroConverter != null) {
+                        pending = dropUnconverted(pending, messages, ids);
+                    }
+                    if (ids != null) {
+                        messageIds = new IdentityHashMap<KeyedMessage<String, Object>, Long>(messages.size());
+                        for (int i = 0; i < messages.size(); i++) {
+                            messageIds.put(messages.get(i), ids[i]);
+                        }
+                    }
+                    // publish the urgent messages right away, ahead of the rest of the batch.
+                    boolean[] urgent = null;
+                    if (urgentClusters != null) {
+                        urgent = classify(routing, pending);
+                        messages = sendUrgent(pending, messages, urgent, takeTime, messageIds, acknowledgedIds);
+                    }
+                    // keep only the last message per topic and key if coalescing is enabled.
+                    if (routing.isCoalesce()) {
+                        messages = coalesce(messages, overflowTopics);
+                    }
+                    // wait for the batches taken earlier to be published.
+                    if (ticket >= 0 && !sequencer.awaitTurn(ticket)) {
+                        throw new EventDeliveryException("A batch taken earlier failed. Rolling back to preserve " +
+                                "the order of the events.");
+                    }
+                    checkDrainDeadline();
+                    // publish
+                    if (messageIds != null) {
+                        sendInChunks(routing, messages, messageIds, acknowledgedIds);
+                        // the messages dropped by coalescing are acknowledged along with the rest of the batch.
+                        acknowledgedIds = new ArrayList<Long>(messageIds.values());
+                    } else if (!messages.isEmpty()) {
+                        send(routing, messages);
+                    }
+                    if (urgent != null) {
+                        recordQueueTime(pending, urgent, false, takeTime);
+                    }
+                } else if (ticket >= 0 && !sequencer.awaitTurn(ticket)) {
+                    // the batches are still committed in the order they were taken.
+                    throw new EventDeliveryException("A batch taken earlier failed. Rolling back to preserve " +
+                            "the order of the events.");
                 }
-                // create a message
-                KeyedMessage<String, String> data = new KeyedMessage<String, String>(eventTopic, eventKey,
-                        eventBody);
-                // publish
-                producer.send(data);
             } else {
                 // No event found, request back-off semantics from the sink runner
+                counter.incrementBatchEmptyCount();
                 result = Status.BACKOFF;
             }
             // publishing is successful. Commit.
             transaction.commit();
+            counter.addToEventDrainSuccessCount(events.size());
+            // aggregate only the committed events, so a redelivered event is not counted twice.
+            if (rollup != null && !events.isEmpty()) {
+                aggregate(routing, events, eventTopics, takeTime);
+            }
+            if (ticket >= 0) {
+                sequencer.complete(ticket);
+                ticket = -1;
+            }
+
+        } catch (ThrottledException ex) {
+            // the throttled topics are retried after backing off, rather than holding the transaction open.
+            rollback(transaction, ticket, skippedIds, acknowledgedIds);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Rolled back a batch of " + events.size() + " events over the rate limits.");
+            }
+            result = Status.BACKOFF;
 
         } catch (Exception ex) {
-            transaction.rollback();
-            String errorMsg = "Failed to publish event: " + event;
+            rollback(transaction, ticket, skippedIds, acknowledgedIds);
+            String errorMsg = "Failed to publish events: " + events.size();
             logger.error(errorMsg);
             throw new EventDeliveryException(errorMsg, ex);
 
         } finally {
+            inFlightEvents.addAndGet(-inFlight);
             transaction.close();
         }
 
         return result;
     }
 
+    /**
+     * Roll back a batch which failed to publish.
+     * @param ticket ticket of the batch in the pipelined mode, -1 otherwise.
+     * @param skippedIds ids of the events skipped as duplicates, if dedup is enabled.
+     * @param acknowledgedIds ids of the events acknowledged by Kafka in this attempt, if dedup is enabled.
+     */
+    private void rollback(Transaction transaction, long ticket, List<Long> skippedIds, List<Long> acknowledgedIds) {
+        if (ticket >= 0) {
+            // the later batches in flight have to be rolled back first.
+            sequencer.abort(ticket);
+        }
+        // remember the events acknowledged already before they are returned to the channel.
+        if (skippedIds != null) {
+            remember(skippedIds);
+            remember(acknowledgedIds);
+        }
+        try {
+            transaction.rollback();
+        } finally {
+            if (ticket >= 0) {
+                sequencer.rolledBack(ticket);
+            }
+        }
+    }
+
+    /**
+     * @throws EventDeliveryException if the sink is stopping and the drain deadline has passed.
+     */
+    private void checkDrainDeadline() throws EventDeliveryException {
+        if (System.currentTimeMillis() >= drainDeadline) {
+            throw new EventDeliveryException("The sink is stopping. Rolling back the batch.");
+        }
+    }
+
+    /**
+     * @return the given timeout, or the time left until the drain deadline if it's shorter.
+     */
+    private long boundByDrainDeadline(long timeoutMillis) {
+        return Math.min(timeoutMillis, Math.max(0, drainDeadline - System.currentTimeMillis()));
+    }
+
+    /**
+     * Check the circuit breakers of the clusters, to see whether a batch can be published at the moment.
+     */
+    private boolean canPublish() {
+        if (failover != null) {
+            // the failover switches away from a cluster whose breaker is open.
+            return failover.isCallPermitted();
+        }
+        int permitted = 0;
+        for (KafkaCluster cluster : clusters) {
+            if (cluster.isCallPermitted()) {
+                permitted++;
+            }
+        }
+        return permitted >= requiredAcks;
+    }
+
+    /**
+     * Drop the events of a redelivered batch which were acknowledged by Kafka before the rollback. The ids
+     * of the remaining events are written to the given array, in the same order as the returned events.
+     * The ids of the dropped events are taken out of the dedup cache and added to the given list, so that
+     * a later event with the same id is published again once this batch is committed.
+     */
+    private List<Event> skipDuplicates(List<Event> events, long[] ids, List<Long> skippedIds) {
+        List<Event> pending = new ArrayList<Event>(events.size());
+        for (Event event : events) {
+            String eventId = dedupHeader == null ? null : event.getHeaders().get(dedupHeader);
+            long id = eventId != null ? DedupCache.hash(eventId) : DedupCache.hash(event.getBody());
+            if (dedupCache.remove(id)) {
+                skippedIds.add(id);
+            } else {
+                ids[pending.size()] = id;
+                pending.add(event);
+            }
+        }
+        int duplicates = events.size() - pending.size();
+        counter.addToDedupLookups(events.size(), duplicates);
+        counter.setDedupSize(dedupCache.size());
+        if (duplicates > 0 && logger.isDebugEnabled()) {
+            logger.debug("Skipped " + duplicates + " events already published.");
+        }
+        return pending;
+    }
+
+    /**
+     * Drop the messages which could not be converted into Avro, along with their events and ids, so that
+     * a malformed event does not fail the batch over and over.
+     * @return the remaining events, in the same order as the remaining messages.
+     */
+    private List<Event> dropUnconverted(List<Event> events, List<KeyedMessage<String, Object>> messages,
+                                        long[] ids) {
+        if (!messages.contains(null)) {
+            return events;
+        }
+        List<Event> converted = new ArrayList<Event>(events.size());
+        Iterator<KeyedMessage<String, Object>> it = messages.iterator();
+        for (int i = 0; it.hasNext(); i++) {
+            if (it.next() == null) {
+                it.remove();
+            } else {
+                if (ids != null) {
+                    ids[converted.size()] = ids[i];
+                }
+                converted.add(events.get(i));
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * Publish the messages in chunks, collecting the ids of each chunk once it's acknowledged. If the
+     * batch fails part way, the chunks already acknowledged are not published again on redelivery.
+     */
+    private void sendInChunks(RoutingConfig routing, List<KeyedMessage<String, Object>> messages,
+                              Map<KeyedMessage<String, Object>, Long> messageIds, List<Long> acknowledgedIds)
+            throws Exception {
+        for (int from = 0; from < messages.size(); ) {
+            int to = from + Math.min(dedupChunkSize, messages.size() - from);
+            List<KeyedMessage<String, Object>> chunk = messages.subList(from, to);
+            send(routing, chunk);
+            acknowledge(chunk, messageIds, acknowledgedIds);
+            from = to;
+        }
+    }
+
+    private void acknowledge(List<KeyedMessage<String, Object>> messages,
+                             Map<KeyedMessage<String, Object>, Long> messageIds, List<Long> acknowledgedIds) {
+        for (KeyedMessage<String, Object> message : messages) {
+            acknowledgedIds.add(messageIds.get(message));
+        }
+    }
+
+    /**
+     * Remember the ids of the events acknowledged by Kafka as part of a batch being rolled back.
+     */
+    private void remember(Collection<Long> ids) {
+        for (Long id : ids) {
+            dedupCache.add(id);
+        }
+        counter.setDedupSize(dedupCache.size());
+    }
+
+    /**
+     * Aggregate the committed events of a batch into the current rollup window.
+     * @param eventTopics topics and keys of the events the messages were prepared for, if any. The topic and
+     * the key of the rest of the events, such as the duplicates skipped or in the rollup only mode, are
+     * extracted here.
+     */
+    private void aggregate(RoutingConfig routing, List<Event> events, Map<Event, TopicKey> eventTopics,
+                           long takeTime) {
+        MessagePreprocessor messagePreProcessor = routing.getPreprocessor();
+        String[] dimensions = rollup.getDimensions();
+        String[] values = new String[dimensions.length];
+        int overflow = 0;
+        for (Event event : events) {
+            TopicKey topicKey = eventTopics == null ? null : eventTopics.get(event);
+            try {
+                for (int i = 0; i < dimensions.length; i++) {
+                    if (Constants.ROLLUP_DIMENSION_TOPIC.equals(dimensions[i])) {
+                        if (topicKey != null) {
+                            values[i] = topicKey.topic;
+                        } else {
+                            values[i] = messagePreProcessor != null ?
+                                    messagePreProcessor.extractTopic(event, routing.getContext()) : routing.getTopic();
+                        }
+                    } else if (Constants.ROLLUP_DIMENSION_KEY.equals(dimensions[i])) {
+                        if (topicKey != null) {
+                            values[i] = topicKey.key;
+                        } else {
+                            values[i] = messagePreProcessor != null ?
+                                    messagePreProcessor.extractKey(event, routing.getContext()) : null;
+                        }
+                    } else {
+                        values[i] = event.getHeaders().get(dimensions[i]);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // the batch is committed already, so the event is aggregated without the failed dimensions.
+                logger.warn("Failed to extract the rollup dimensions of an event.", e);
+            }
+            if (!rollup.add(values, event.getBody().length, takeTime)) {
+                overflow++;
+            }
+        }
+        counter.addToRollupEventCount(events.size(), overflow);
+    }
+
+    /**
+     * Publish the summaries of the closed rollup windows. The summaries are published directly, so they are
+     * neither rate limited nor handled as oversize messages. The summaries which fail to be published are
+     * kept to be published with the next ones, unless the sink is stopping.
+     * @param stopping whether to close the current window and publish it right away.
+     */
+    private void publishRollup(boolean stopping) {
+        List<KeyedMessage<String, Object>> summaries = rollup.drain(System.currentTimeMillis(), stopping);
+        if (summaries.isEmpty()) {
+            return;
+        }
+        try {
+            publish(clusters, summaries);
+            counter.addToRollupSummaryCount(summaries.size());
+        } catch (Exception e) {
+            counter.incrementRollupPublishFailureCount();
+            if (stopping) {
+                logger.error("Failed to publish " + summaries.size() + " rollup summaries before stopping.", e);
+            } else {
+                logger.warn("Failed to publish " + summaries.size() + " rollup summaries. Retrying when the " +
+                        "next window closes.", e);
+                int dropped = rollup.requeue(summaries);
+                if (dropped > 0) {
+                    logger.error("Dropped " + dropped + " rollup summaries of the oldest windows.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Classify the events of a batch into the urgent and bulk lanes.
+     */
+    private boolean[] classify(RoutingConfig routing, List<Event> events) {
+        PriorityClassifier priorityClassifier = routing.getPriorityClassifier();
+        boolean[] urgent = new boolean[events.size()];
+        for (int i = 0; i < urgent.length; i++) {
+            Event event = events.get(i);
+            if (priorityClassifier != null) {
+                urgent[i] = priorityClassifier.isUrgent(event, routing.getContext());
+            } else {
+                String priority = event.getHeaders().get(priorityHeader);
+                if (priority != null) {
+                    try {
+                        urgent[i] = Integer.parseInt(priority.trim()) <= priorityThreshold;
+                    } catch (NumberFormatException e) {
+                        // not a numeric priority. treat it as bulk.
+                    }
+                }
+            }
+        }
+        return urgent;
+    }
+
+    /**
+     * Publish the urgent messages of a batch through the urgent producers, with the same commit policy
+     * or failover as the bulk messages.
+     * @return the remaining bulk messages, in their original order.
+     */
+    private List<KeyedMessage<String, Object>> sendUrgent(List<Event> events,
+                                                          List<KeyedMessage<String, Object>> messages,
+                                                          boolean[] urgent, long takeTime,
+                                                          Map<KeyedMessage<String, Object>, Long> messageIds,
+                                                          List<Long> acknowledgedIds) throws Exception {
+        List<KeyedMessage<String, Object>> urgentMessages = new ArrayList<KeyedMessage<String, Object>>();
+        List<KeyedMessage<String, Object>> bulkMessages = new ArrayList<KeyedMessage<String, Object>>(messages.size());
+        for (int i = 0; i < urgent.length; i++) {
+            if (urgent[i]) {
+                urgentMessages.add(messages.get(i));
+            } else {
+                bulkMessages.add(messages.get(i));
+            }
+        }
+        if (!urgentMessages.isEmpty()) {
+            checkDrainDeadline();
+            publish(urgentClusters, oversizeHandler != null ? oversizeHandler.fit(urgentMessages) : urgentMessages);
+            // remembered if the bulk messages fail, so that the urgent messages are not published again.
+            acknowledge(urgentMessages, messageIds, acknowledgedIds);
+            recordQueueTime(events, urgent, true, takeTime);
+        }
+        return bulkMessages;
+    }
+
+    /**
+     * Report the time the events of a lane spent from entering the channel until they were published.
+     * The "timestamp" header is used as the time the event entered the channel, falling back to the
+     * time the batch was taken if the header is missing.
+     */
+    private void recordQueueTime(List<Event> events, boolean[] urgent, boolean lane, long takeTime) {
+        long now = System.currentTimeMillis();
+        long eventCount = 0;
+        long queueTime = 0;
+        for (int i = 0; i < urgent.length; i++) {
+            if (urgent[i] != lane) {
+                continue;
+            }
+            long enqueueTime = takeTime;
+            String timestamp = events.get(i).getHeaders().get(Constants.TIMESTAMP_HEADER);
+            if (timestamp != null) {
+                try {
+                    enqueueTime = Math.min(Long.parseLong(timestamp.trim()), takeTime);
+                } catch (NumberFormatException e) {
+                    // use the time the batch was taken.
+                }
+            }
+            queueTime += now - enqueueTime;
+            eventCount++;
+        }
+        if (lane) {
+            counter.addToUrgentLane(eventCount, queueTime);
+        } else {
+            counter.addToBulkLane(eventCount, queueTime);
+        }
+    }
+
+    /**
+     * Prepare the messages for a batch of events. If a preprocessor thread pool is configured, the
+     * events are split into contiguous ranges which are processed in parallel. Either way, the returned
+     * messages are in the same order as the events.
+     */
+    private List<KeyedMessage<String, Object>> prepareMessages(
+            final RoutingConfig routing, final List<Event> events,
+            final Map<KeyedMessage<String, Object>, String> overflowTopics,
+            final Map<Event, TopicKey> eventTopics) throws Exception {
+        if (preprocessorExecutor == null || events.size() == 1) {
+            List<KeyedMessage<String, Object>> messages = new ArrayList<KeyedMessage<String, Object>>(events.size());
+            for (Event event : events) {
+                messages.add(prepareMessage(routing, event, overflowTopics, eventTopics));
+            }
+            return messages;
+        }
+        // each range fills its own slots of the list. The tasks are joined before the list is read.
+        final List<KeyedMessage<String, Object>> messages = new ArrayList<KeyedMessage<String, Object>>(
+                Collections.<KeyedMessage<String, Object>>nCopies(events.size(), null));
+
+        int taskCount = Math.min(preprocessorThreads, events.size());
+        int rangeSize = (events.size() + taskCount - 1) / taskCount;
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(taskCount);
+        for (int start = 0; start < events.size(); start += rangeSize) {
+            final int from = start;
+            final int to = Math.min(start + rangeSize, events.size());
+            futures.add(preprocessorExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = from; i < to; i++) {
+                        messages.set(i, prepareMessage(routing, events.get(i), overflowTopics, eventTopics));
+                    }
+                    return null;
+                }
+            }));
+        }
+        // wait for all the ranges, so that a failure does not leave tasks running on a rolled back batch.
+        Exception failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return messages;
+    }
+
+    /**
+     * Publish a batch of messages. If rate limiting is enabled, the permits of all the topics in the batch are
+     * reserved before publishing anything, so a batch over the rate limits is rolled back without having
+     * published any of its messages. The messages of the topics under their rates are then published first,
+     * and the throttled topics follow once their permits are available, so a topic over its rate does not hold
+     * back the rest. The order of the messages within a topic is preserved.
+     * @throws ThrottledException if the throttled topics would not be let through within the maximum wait.
+     */
+    private void send(RoutingConfig routing, List<KeyedMessage<String, Object>> messages) throws Exception {
+        if (oversizeHandler != null) {
+            messages = oversizeHandler.fit(messages);
+        }
+        TopicRateLimiter rateLimiter = routing.getRateLimiter();
+        if (rateLimiter == null) {
+            publish(clusters, messages);
+            return;
+        }
+        Map<String, List<KeyedMessage<String, Object>>> topicMessages =
+                new LinkedHashMap<String, List<KeyedMessage<String, Object>>>();
+        for (KeyedMessage<String, Object> message : messages) {
+            List<KeyedMessage<String, Object>> topicList = topicMessages.get(message.topic());
+            if (topicList == null) {
+                topicList = new ArrayList<KeyedMessage<String, Object>>();
+                topicMessages.put(message.topic(), topicList);
+            }
+            topicList.add(message);
+        }
+
+        // check every topic before reserving any permits, so a batch rolled back does not use them up.
+        long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxThrottleWait);
+        long drainWaitNanos = TimeUnit.MILLISECONDS.toNanos(boundByDrainDeadline(Long.MAX_VALUE));
+        Map<String, TokenBucket> buckets = new HashMap<String, TokenBucket>();
+        int throttledCount = 0;
+        boolean overLimit = false;
+        for (Map.Entry<String, List<KeyedMessage<String, Object>>> entry : topicMessages.entrySet()) {
+            TokenBucket bucket = rateLimiter.getBucket(entry.getKey());
+            if (bucket == null) {
+                continue;
+            }
+            buckets.put(entry.getKey(), bucket);
+            long waitNanos = bucket.nanosUntilAvailable(entry.getValue().size());
+            if (waitNanos > 0) {
+                throttledCount += entry.getValue().size();
+                // backing off does not help a topic with more messages than a full bucket lets through in time.
+                overLimit |= (waitNanos > maxWaitNanos && !bucket.isFull()) || waitNanos > drainWaitNanos;
+            }
+        }
+        if (throttledCount > 0) {
+            counter.addToEventThrottledCount(throttledCount);
+        }
+        if (overLimit) {
+            throw new ThrottledException();
+        }
+
+        List<KeyedMessage<String, Object>> ready = new ArrayList<KeyedMessage<String, Object>>(messages.size());
+        final Map<String, Long> availableAt = new HashMap<String, Long>();
+        List<String> throttledTopics = new ArrayList<String>();
+        long now = System.nanoTime();
+        for (Map.Entry<String, List<KeyedMessage<String, Object>>> entry : topicMessages.entrySet()) {
+            TokenBucket bucket = buckets.get(entry.getKey());
+            long waitNanos = bucket == null ? 0 : bucket.reserve(entry.getValue().size());
+            if (waitNanos > 0) {
+                availableAt.put(entry.getKey(), now + waitNanos);
+                throttledTopics.add(entry.getKey());
+            } else {
+                ready.addAll(entry.getValue());
+            }
+        }
+        Collections.sort(throttledTopics, new Comparator<String>() {
+            @Override
+            public int compare(String topic1, String topic2) {
+                return Long.signum(availableAt.get(topic1) - availableAt.get(topic2));
+            }
+        });
+        for (String throttledTopic : throttledTopics) {
+            long waitNanos = availableAt.get(throttledTopic) - System.nanoTime();
+            if (waitNanos > 0) {
+                if (!ready.isEmpty()) {
+                    publish(clusters, ready);
+                    ready = new ArrayList<KeyedMessage<String, Object>>();
+                }
+                long waitStart = System.nanoTime();
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+                counter.addToThrottleTimeMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStart));
+            }
+            ready.addAll(topicMessages.get(throttledTopic));
+        }
+        if (!ready.isEmpty()) {
+            publish(clusters, ready);
+        }
+    }
+
+    /**
+     * Publish messages to the cluster(s). When publishing to multiple clusters, the clusters are
+     * written to in parallel and this returns once the number of clusters required by the commit
+     * policy acknowledge the messages, or fails once the acknowledgements are not received in time.
+     * @param lane the clusters, or the urgent producers of the clusters.
+     */
+    private void publish(List<KafkaCluster> lane, List<KeyedMessage<String, Object>> messages) throws Exception {
+        if (lane.size() == 1) {
+            lane.get(0).send(messages);
+            return;
+        }
+        if (failover != null) {
+            failover.publish(lane, messages);
+            return;
+        }
+        ClusterAcks acks = new ClusterAcks(lane.size(), requiredAcks);
+        for (KafkaCluster cluster : lane) {
+            cluster.submit(messages, acks);
+        }
+        acks.await(boundByDrainDeadline(ackTimeout));
+    }
+
+    /**
+     * Drop the messages superseded by a later message with the same topic and key within the batch.
+     * This is meant for log compacted topics, where only the latest value of a key is retained.
+     * Messages without a key are never dropped. The order of the remaining messages is preserved.
+     * The messages published to the overflow topic are coalesced by the topics extracted from their events.
+     */
+    private List<KeyedMessage<String, Object>> coalesce(List<KeyedMessage<String, Object>> messages,
+                                                       Map<KeyedMessage<String, Object>, String> overflowTopics) {
+        Set<TopicKey> seen = new HashSet<TopicKey>(messages.size() * 2);
+        LinkedList<KeyedMessage<String, Object>> coalesced = new LinkedList<KeyedMessage<String, Object>>();
+        // walk backwards so that the last message of each key is the one retained.
+        for (ListIterator<KeyedMessage<String, Object>> it = messages.listIterator(messages.size());
+             it.hasPrevious(); ) {
+            KeyedMessage<String, Object> message = it.previous();
+            String topic = overflowTopics == null || !overflowTopics.containsKey(message) ?
+                    message.topic() : overflowTopics.get(message);
+            if (message.key() == null || seen.add(new TopicKey(topic, message.key()))) {
+                coalesced.addFirst(message);
+            }
+        }
+        int coalescedCount = messages.size() - coalesced.size();
+        if (coalescedCount > 0) {
+            counter.addToEventCoalescedCount(coalescedCount);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Coalesced " + coalescedCount + " messages out of " + messages.size());
+            }
+        }
+        return coalesced;
+    }
+
+    /**
+     * Prepare the message for an event. If the topic extracted from the event is not known to exist yet,
+     * the message is published to the overflow topic and the extracted topic is added to the given map.
+     * @param eventTopics map to add the topic and the key extracted from the event to, if it's provided.
+     */
+    private KeyedMessage<String, Object> prepareMessage(RoutingConfig routing, Event event,
+                                                        Map<KeyedMessage<String, Object>, String> overflowTopics,
+                                                        Map<Event, TopicKey> eventTopics) throws Exception {
+        MessagePreprocessor messagePreProcessor = routing.getPreprocessor();
+        Context context = routing.getContext();
+        String eventTopic = routing.getTopic();
+        String eventKey = null;
+        String eventBody;
+        // if the metadata extractor is set, extract the topic and the key.
+        if (messagePreProcessor != null) {
+            eventBody = messagePreProcessor.transformMessage(event, context);
+            eventTopic = messagePreProcessor.extractTopic(event, context);
+            eventKey = messagePreProcessor.extractKey(event, context);
+        } else {
+            // get the message body.
+            eventBody = new String(event.getBody());
+        }
+        if (eventTopics != null) {
+            eventTopics.put(event, new TopicKey(eventTopic, eventKey));
+        }
+        // log the event for debugging
+        if (logger.isDebugEnabled()) {
+            logger.debug("{Event} " + eventBody);
+        }
+        // publish to the overflow topic until a topic extracted from the event is known to exist.
+        String publishTopic = eventTopic;
+        if (topicCache != null && eventTopic != null && !eventTopic.equals(routing.getTopic())) {
+            publishTopic = topicCache.resolve(eventTopic);
+        }
+        // convert the message into Avro if it's enabled, with the schema of the topic it's published to.
+        Object payload = eventBody;
+        if (avroConverter != null) {
+            // only the invalid messages and the topics rejected by the registry are dropped. Other errors
+            // looking up the schema fail the batch.
+            try {
+                payload = avroConverter.convert(publishTopic, eventBody);
+            } catch (IOException e) {
+                return dropUnconverted(publishTopic, e);
+            }
+        }
+        // create a message
+        KeyedMessage<String, Object> message = new KeyedMessage<String, Object>(publishTopic, eventKey, payload);
+        if (eventTopic != null && !eventTopic.equals(publishTopic)) {
+            overflowTopics.put(message, eventTopic);
+        }
+        return message;
+    }
+
+    /**
+     * Report an event which could not be converted into Avro.
+     * @return <code>null</code>, which marks the message to be dropped.
+     */
+    private KeyedMessage<String, Object> dropUnconverted(String topic, Exception e) {
+        counter.incrementAvroConversionFailureCount();
+        logger.warn("Dropping an event which could not be converted into Avro for the topic " + topic + ": " +
+                e.getMessage());
+        return null;
+    }
+
     @Override
     public synchronized void start() {
-        // instantiate the producer
-        ProducerConfig config = new ProducerConfig(producerProps);
-        producer = new Producer<String, String>(config);
+        draining = false;
+        drainDeadline = Long.MAX_VALUE;
+        // instantiate the producers or get the shared producers
+        for (KafkaCluster cluster : clusters) {
+            // in the fan out mode, each cluster publishes from its own thread.
+            cluster.start(clusters.size() > 1 && failover == null, clusters.size() > 1);
+        }
+        if (failover != null) {
+            failover.start(getName());
+        }
+        if (urgentClusters != null) {
+            for (KafkaCluster urgentCluster : urgentClusters) {
+                urgentCluster.start(urgentClusters.size() > 1 && failover == null, true);
+            }
+        }
+        if (topicCache != null) {
+            topicCache.start(getName());
+        }
+        if (preprocessorThreads > 0) {
+            preprocessorExecutor = Executors.newFixedThreadPool(preprocessorThreads,
+                    new ThreadFactoryBuilder().setNameFormat(getName() + "-preprocessor-%d").setDaemon(true).build());
+        }
+        counter.incrementConnectionCreatedCount();
+        counter.start();
         super.start();
+        // the sink runner processes a batch as well, so start one thread less than the depth.
+        if (pipelineDepth > 1) {
+            sequencer = new BatchSequencer();
+            pipelineRunning = true;
+            pipelineThreads = new ArrayList<Thread>(pipelineDepth - 1);
+            for (int i = 0; i < pipelineDepth - 1; i++) {
+                Thread pipelineThread = new Thread(new PipelineRunner(), getName() + "-pipeline-" + i);
+                pipelineThread.setDaemon(true);
+                pipelineThreads.add(pipelineThread);
+                pipelineThread.start();
+            }
+        }
     }
 
+    /**
+     * Drain the sink. No more events are taken from the channel, and the batches in flight are published
+     * and committed, along with the current rollup window, the batches pending for the clusters and the
+     * messages queued in the producers, until the drain deadline. Every step is bounded by the same
+     * deadline. The batches still in flight by then are rolled back, including a batch the sink runner
+     * thread is sending at that moment, whose producer is closed under it.
+     */
     @Override
     public synchronized void stop() {
-        producer.close();
+        long drainStart = System.currentTimeMillis();
+        long deadline = drainStart + drainTimeout;
+        drainDeadline = deadline;
+        draining = true;
+        if (pipelineThreads != null) {
+            // let the pipeline threads complete the batches in flight.
+            pipelineRunning = false;
+            for (Thread pipelineThread : pipelineThreads) {
+                try {
+                    pipelineThread.join(Math.max(1, deadline - System.currentTimeMillis()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (pipelineThread.isAlive()) {
+                    logger.warn("Pipeline thread " + pipelineThread.getName() + " did not stop in time.");
+                }
+            }
+            pipelineThreads = null;
+        }
+        // the sink runner thread may be publishing a batch as well.
+        while (inFlightEvents.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(Math.min(PIPELINE_BACKOFF_MS, Math.max(1, deadline - System.currentTimeMillis())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (preprocessorExecutor != null) {
+            preprocessorExecutor.shutdown();
+            preprocessorExecutor = null;
+        }
+        // publish the current rollup window before the producers are closed.
+        if (rollup != null) {
+            Thread rollupFlusher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    publishRollup(true);
+                }
+            }, getName() + "-rollup-flusher");
+            rollupFlusher.setDaemon(true);
+            rollupFlusher.start();
+            try {
+                rollupFlusher.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (rollupFlusher.isAlive()) {
+                logger.warn("The current rollup window was not published in time.");
+            }
+        }
+        if (failover != null) {
+            failover.stop();
+        }
+        if (topicCache != null) {
+            topicCache.stop();
+        }
+        long leftover = 0;
+        for (KafkaCluster cluster : clusters) {
+            leftover += cluster.stop(Math.max(0, deadline - System.currentTimeMillis()));
+        }
+        if (urgentClusters != null) {
+            for (KafkaCluster urgentCluster : urgentClusters) {
+                leftover += urgentCluster.stop(Math.max(0, deadline - System.currentTimeMillis()));
+            }
+        }
+        // the events taken by the threads still running, which are to be rolled back.
+        leftover += inFlightEvents.get();
+        long drainDuration = System.currentTimeMillis() - drainStart;
+        counter.setDrainDurationMillis(drainDuration);
+        counter.setDrainLeftoverEventCount(leftover);
+        if (leftover > 0 || drainDuration > drainTimeout) {
+            counter.incrementDrainTimeoutCount();
+            logger.warn("Drained the sink in " + drainDuration + " ms, exceeding the deadline of " + drainTimeout +
+                    " ms. " + leftover + " events were not published.");
+        } else {
+            logger.info("Drained the sink in " + drainDuration + " ms.");
+        }
+        counter.incrementConnectionClosedCount();
+        counter.stop();
         super.stop();
     }
 
-
     @Override
     public void configure(Context context) {
         this.context = context;
+        if (counter == null) {
+            counter = new KafkaSinkCounter(getName());
+        }
         // read the properties for Kafka Producer
         // any property that has the prefix "kafka" in the key will be considered as a property that is passed when
         // instantiating the producer.
@@ -138,21 +1016,329 @@ public class KafkaSink extends AbstractSink implements Configurable {
             }
         }
 
+        // the routing config may be swapped later from the reload file.
+        routing = createRouting(context, 1);
+        counter.setConfigVersion(routing.getVersion());
+        reloadFile = null;
+        String reloadFileName = context.getString(Constants.RELOAD_FILE);
+        if (reloadFileName != null) {
+            reloadFile = new File(reloadFileName.trim());
+            reloadInterval = context.getLong(Constants.RELOAD_INTERVAL_MS, Constants.DEFAULT_RELOAD_INTERVAL_MS);
+            // the file is applied before the first batch if it exists already.
+            reloadFileModified = 0;
+            nextReloadCheck = 0;
+            logger.info("Reloading the routing config from " + reloadFile + " when it changes.");
+        }
+
+        batchSize = context.getInteger(Constants.BATCH_SIZE, Constants.DEFAULT_BATCH_SIZE);
+        if (batchSize < 1) {
+            String errorMsg = "'" + Constants.BATCH_SIZE + "' should be a positive integer.";
+            logger.error(errorMsg);
+            throw new IllegalArgumentException(errorMsg);
+        }
+        // the preprocessing of a batch is done in parallel if a thread count is provided.
+        preprocessorThreads = context.getInteger(Constants.PREPROCESSOR_THREADS, 0);
+        if (preprocessorThreads > 0) {
+            logger.info("Preprocessing the batches in parallel using " + preprocessorThreads + " threads.");
+        }
+
+        drainTimeout = context.getLong(Constants.DRAIN_TIMEOUT_MS, Constants.DEFAULT_DRAIN_TIMEOUT_MS);
+        if (drainTimeout < 0) {
+            String errorMsg = "'" + Constants.DRAIN_TIMEOUT_MS + "' should not be negative.";
+            logger.error(errorMsg);
+            throw new IllegalArgumentException(errorMsg);
+        }
+        maxThrottleWait = context.getLong(Constants.RATE_LIMIT_MAX_WAIT_MS, Constants.DEFAULT_RATE_LIMIT_MAX_WAIT_MS);
+        if (maxThrottleWait < 0) {
+            String errorMsg = "'" + Constants.RATE_LIMIT_MAX_WAIT_MS + "' should not be negative.";
+            logger.error(errorMsg);
+            throw new IllegalArgumentException(errorMsg);
+        }
+
+        pipelineDepth = context.getInteger(Constants.PIPELINE_DEPTH, 1);
+        if (pipelineDepth > 1) {
+            logger.info("Pipelining up to " + pipelineDepth + " batches.");
+        }
+
+        boolean sharedProducer = context.getBoolean(Constants.PRODUCER_SHARED, false);
+        if (sharedProducer) {
+            logger.info("Using a Kafka Producer shared with the sinks having the same producer properties.");
+        }
+
+        // set up the Avro conversion if it's enabled.
+        Context avroContext = new Context(context.getSubProperties(AvroConstants.PROPERTY_PREFIX));
+        if (avroContext.getBoolean(AvroConstants.ENABLED, false)) {
+            SchemaRegistry schemaRegistry = createSchemaRegistry(avroContext);
+            avroConverter = new AvroConverter(schemaRegistry);
+            // Avro messages are binary. So use an encoder that supports both Strings and byte arrays.
+            usePayloadEncoder(producerProps);
+            logger.info("Avro conversion is enabled with the schema registry: " +
+                    avroContext.getString(AvroConstants.SCHEMA_REGISTRY, FileSchemaRegistry.class.getName()));
+        }
+
+        // set up the handling of the messages over the size limit if it's enabled.
+        oversizeHandler = null;
+        String oversizePolicy = context.getString(Constants.OVERSIZE_POLICY);
+        if (oversizePolicy != null) {
+            oversizePolicy = oversizePolicy.trim();
+            boolean compress = Constants.OVERSIZE_POLICY_COMPRESS.equals(oversizePolicy) ||
+                    Constants.OVERSIZE_POLICY_COMPRESS_SPLIT.equals(oversizePolicy);
+            boolean split = Constants.OVERSIZE_POLICY_SPLIT.equals(oversizePolicy) ||
+                    Constants.OVERSIZE_POLICY_COMPRESS_SPLIT.equals(oversizePolicy);
+            if (!compress && !split) {
+                String errorMsg = "Unknown '" + Constants.OVERSIZE_POLICY + "': " + oversizePolicy + ". Should be " +
+                        "either " + Constants.OVERSIZE_POLICY_COMPRESS + ", " + Constants.OVERSIZE_POLICY_SPLIT +
+                        " or " + Constants.OVERSIZE_POLICY_COMPRESS_SPLIT + ".";
+                logger.error(errorMsg);
+                throw new IllegalArgumentException(errorMsg);
+            }
+            int oversizeMaxBytes = context.getInteger(Constants.OVERSIZE_MAX_BYTES, Constants.DEFAULT_OVERSIZE_MAX_BYTES);
+            int oversizeMaxChunks = context.getInteger(Constants.OVERSIZE_MAX_CHUNKS,
+                    Constants.DEFAULT_OVERSIZE_MAX_CHUNKS);
+            if (oversizeMaxBytes <= MessageEnvelope.HEADER_SIZE || oversizeMaxChunks < 1) {
+                String errorMsg = "'" + Constants.OVERSIZE_MAX_BYTES + "' should be larger than " +
+                        MessageEnvelope.HEADER_SIZE + " and '" + Constants.OVERSIZE_MAX_CHUNKS + "' should be " +
+                        "a positive integer.";
+                logger.error(errorMsg);
+                throw new IllegalArgumentException(errorMsg);
+            }
+            String codecName = context.getString(Constants.OVERSIZE_CODEC, Constants.DEFAULT_OVERSIZE_CODEC).trim();
+            if (!"gzip".equals(codecName) && !"snappy".equals(codecName)) {
+                String errorMsg = "Unknown '" + Constants.OVERSIZE_CODEC + "': " + codecName + ". Should be either " +
+                        "gzip or snappy.";
+                logger.error(errorMsg);
+                throw new IllegalArgumentException(errorMsg);
+            }
+            oversizeHandler = new OversizeHandler(oversizeMaxBytes, compress, split, MessageEnvelope.codec(codecName),
+                    oversizeMaxChunks, producerProps.getProperty("serializer.encoding", "UTF8"), counter);
+            // the oversize messages are binary. So use an encoder that supports both Strings and byte arrays.
+            usePayloadEncoder(producerProps);
+            logger.info("Messages over " + oversizeMaxBytes + " bytes are handled with the policy " +
+                    oversizePolicy + ".");
+        }
+
+        // set up the clusters to publish to. Without a list of clusters, the producer properties
+        // are used to publish to a single cluster.
+        clusters = new ArrayList<KafkaCluster>();
+        failover = null;
+        String clusterNames = context.getString(Constants.CLUSTERS);
+        int maxPendingBatches = 1;
+        if (clusterNames == null) {
+            clusters.add(new KafkaCluster(Constants.DEFAULT_CLUSTER, getName(), producerProps, sharedProducer, 1));
+            requiredAcks = 1;
+        } else {
+            maxPendingBatches = context.getInteger(Constants.CLUSTERS_MAX_PENDING_BATCHES,
+                    Constants.DEFAULT_CLUSTERS_MAX_PENDING_BATCHES);
+            ackTimeout = context.getLong(Constants.CLUSTERS_ACK_TIMEOUT_MS, Constants.DEFAULT_CLUSTERS_ACK_TIMEOUT_MS);
+            for (String clusterName : clusterNames.trim().split("\\s+")) {
+                // the properties of a cluster override the common producer properties.
+                Properties clusterProps = new Properties();
+                clusterProps.putAll(producerProps);
+                Map<String, String> clusterOverrides = context.getSubProperties(Constants.CLUSTERS_PREFIX +
+                        clusterName + "." + Constants.PROPERTY_PREFIX + ".");
+                for (Map.Entry<String, String> entry : clusterOverrides.entrySet()) {
+                    clusterProps.put(entry.getKey().trim(), entry.getValue().trim());
+                }
+                if (avroConverter != null || oversizeHandler != null) {
+                    usePayloadEncoder(clusterProps);
+                }
+                clusters.add(new KafkaCluster(clusterName, getName(), clusterProps, sharedProducer,
+                        maxPendingBatches));
+            }
+            String clusterMode = context.getString(Constants.CLUSTERS_MODE, Constants.CLUSTERS_MODE_FANOUT).trim();
+            if (Constants.CLUSTERS_MODE_FAILOVER.equals(clusterMode)) {
+                failover = createFailover(context);
+                logger.info("Publishing to the clusters " + clusterNames + " in the failover mode.");
+            } else if (Constants.CLUSTERS_MODE_FANOUT.equals(clusterMode)) {
+                requiredAcks = getRequiredAcks(context);
+                logger.info("Publishing to the clusters " + clusterNames + ". Acknowledgements required from " +
+                        requiredAcks + " clusters.");
+            } else {
+                String errorMsg = "Unknown cluster mode: " + clusterMode + ". Supported modes are '" +
+                        Constants.CLUSTERS_MODE_FANOUT + "' and '" + Constants.CLUSTERS_MODE_FAILOVER + "'.";
+                logger.error(errorMsg);
+                throw new IllegalArgumentException(errorMsg);
+            }
+        }
+
+        // guard the clusters with circuit breakers if they are enabled.
+        if (context.getBoolean(Constants.BREAKER_ENABLED, false)) {
+            double failureRateThreshold = Double.parseDouble(context.getString(
+                    Constants.BREAKER_FAILURE_RATE_THRESHOLD,
+                    Double.toString(Constants.DEFAULT_BREAKER_FAILURE_RATE_THRESHOLD)).trim());
+            int windowSize = context.getInteger(Constants.BREAKER_WINDOW_SIZE, Constants.DEFAULT_BREAKER_WINDOW_SIZE);
+            int minCalls = context.getInteger(Constants.BREAKER_MIN_CALLS, Constants.DEFAULT_BREAKER_MIN_CALLS);
+            long openMillis = context.getLong(Constants.BREAKER_OPEN_MS, Constants.DEFAULT_BREAKER_OPEN_MS);
+            int halfOpenProbes = context.getInteger(Constants.BREAKER_HALF_OPEN_PROBES,
+                    Constants.DEFAULT_BREAKER_HALF_OPEN_PROBES);
+            if (windowSize < 1 || halfOpenProbes < 1) {
+                String errorMsg = "'" + Constants.BREAKER_WINDOW_SIZE + "' and '" +
+                        Constants.BREAKER_HALF_OPEN_PROBES + "' should be positive integers.";
+                logger.error(errorMsg);
+                throw new IllegalArgumentException(errorMsg);
+            }
+            for (KafkaCluster cluster : clusters) {
+                cluster.setCircuitBreaker(new CircuitBreaker(cluster.getName(), failureRateThreshold, windowSize,
+                        minCalls, openMillis, halfOpenProbes, counter));
+            }
+            logger.info("Circuit breakers are enabled. Failure rate threshold: " + failureRateThreshold +
+                    ", open period: " + openMillis + "ms.");
+        }
+
+        // set up the cache of the topics extracted from the events if it's enabled.
+        topicCache = null;
+        if (context.getBoolean(Constants.TOPIC_CACHE_ENABLED, false)) {
+            int topicCacheCapacity = context.getInteger(Constants.TOPIC_CACHE_CAPACITY,
+                    Constants.DEFAULT_TOPIC_CACHE_CAPACITY);
+            long topicRetry = context.getLong(Constants.TOPIC_CACHE_RETRY_MS, Constants.DEFAULT_TOPIC_CACHE_RETRY_MS);
+            double creationRate = Double.parseDouble(context.getString(Constants.TOPIC_CREATION_RATE,
+                    Double.toString(Constants.DEFAULT_TOPIC_CREATION_RATE)).trim());
+            int creationBurst = context.getInteger(Constants.TOPIC_CREATION_BURST,
+                    Constants.DEFAULT_TOPIC_CREATION_BURST);
+            if (topicCacheCapacity < 1 || creationBurst < 1 || creationRate <= 0 || topicRetry < 0) {
+                String errorMsg = "'" + Constants.TOPIC_CACHE_CAPACITY + "', '" + Constants.TOPIC_CREATION_RATE +
+                        "' and '" + Constants.TOPIC_CREATION_BURST + "' should be positive and '" +
+                        Constants.TOPIC_CACHE_RETRY_MS + "' should not be negative.";
+                logger.error(errorMsg);
+                throw new IllegalArgumentException(errorMsg);
+            }
+            String overflowTopic = context.getString(Constants.TOPIC_OVERFLOW, Constants.DEFAULT_TOPIC).trim();
+            int metadataTimeout = Integer.parseInt(producerProps.getProperty("request.timeout.ms", "10000").trim());
+            topicCache = new TopicCache(clusters, topicCacheCapacity, overflowTopic, topicRetry, creationRate,
+                    creationBurst, metadataTimeout, counter);
+            logger.info("Caching up to " + topicCacheCapacity + " topics extracted from the events. New topics " +
+                    "are resolved at up to " + creationRate + " per second and published to the topic " +
+                    overflowTopic + " meanwhile.");
+        }
+
+        // set up the dedup cache if it's enabled.
+        dedupCache = null;
+        if (context.getBoolean(Constants.DEDUP_ENABLED, false)) {
+            int dedupCapacity = context.getInteger(Constants.DEDUP_CAPACITY, Constants.DEFAULT_DEDUP_CAPACITY);
+            dedupChunkSize = context.getInteger(Constants.DEDUP_CHUNK_SIZE, Constants.DEFAULT_DEDUP_CHUNK_SIZE);
+            if (dedupCapacity < 1 || dedupChunkSize < 1) {
+                String errorMsg = "'" + Constants.DEDUP_CAPACITY + "' and '" + Constants.DEDUP_CHUNK_SIZE +
+                        "' should be positive integers.";
+                logger.error(errorMsg);
+                throw new IllegalArgumentException(errorMsg);
+            }
+            dedupHeader = context.getString(Constants.DEDUP_HEADER);
+            if (dedupHeader != null) {
+                dedupHeader = dedupHeader.trim();
+            }
+            dedupCache = new DedupCache(dedupCapacity);
+            logger.info("Skipping the redelivered events acknowledged before a rollback, remembering up to " +
+                    dedupCapacity + " events identified by " +
+                    (dedupHeader != null ? "the header '" + dedupHeader + "'" : "the body") + ".");
+        }
+
+        // set up the rollup windows if they are enabled.
+        rollup = null;
+        if (context.getBoolean(Constants.ROLLUP_ENABLED, false)) {
+            long rollupWindow = context.getLong(Constants.ROLLUP_WINDOW_MS, Constants.DEFAULT_ROLLUP_WINDOW_MS);
+            int rollupMaxGroups = context.getInteger(Constants.ROLLUP_MAX_GROUPS, Constants.DEFAULT_ROLLUP_MAX_GROUPS);
+            if (rollupWindow < 1 || rollupMaxGroups < 1) {
+                String errorMsg = "'" + Constants.ROLLUP_WINDOW_MS + "' and '" + Constants.ROLLUP_MAX_GROUPS +
+                        "' should be positive integers.";
+                logger.error(errorMsg);
+                throw new IllegalArgumentException(errorMsg);
+            }
+            List<String> dimensions = new ArrayList<String>();
+            for (String dimension : context.getString(Constants.ROLLUP_DIMENSIONS, "").split(",")) {
+                if (dimension.trim().length() > 0) {
+                    dimensions.add(dimension.trim());
+                }
+            }
+            String rollupTopic = context.getString(Constants.ROLLUP_TOPIC, Constants.DEFAULT_ROLLUP_TOPIC).trim();
+            rollupRaw = context.getBoolean(Constants.ROLLUP_RAW, true);
+            rollup = new RollupAggregator(rollupTopic, dimensions.toArray(new String[dimensions.size()]),
+                    rollupWindow, rollupMaxGroups);
+            logger.info("Publishing the event counts per " + dimensions + " and " + rollupWindow + " ms to the " +
+                    "topic " + rollupTopic + (rollupRaw ? ", along with the events." : ", instead of the events."));
+        }
+
+        // set up the urgent lane if the events are classified by priority.
+        urgentClusters = null;
+        PriorityClassifier priorityClassifier = routing.getPriorityClassifier();
+        priorityHeader = context.getString(Constants.PRIORITY_HEADER);
+        priorityThreshold = context.getInteger(Constants.PRIORITY_THRESHOLD, Constants.DEFAULT_PRIORITY_THRESHOLD);
+        if (priorityClassifier != null || priorityHeader != null) {
+            // the urgent events are acknowledged ahead of the rest of the batch. Without dedup, they would be
+            // published again whenever the bulk events of the batch are rolled back.
+            if (dedupCache == null) {
+                String errorMsg = "The priority lanes require '" + Constants.DEDUP_ENABLED + "'.";
+                logger.error(errorMsg);
+                throw new IllegalArgumentException(errorMsg);
+            }
+            if (priorityHeader != null) {
+                priorityHeader = priorityHeader.trim();
+            }
+            // each cluster gets an urgent producer, which publishes each batch synchronously, waiting for all the
+            // in sync replicas by default. The properties prefixed with "priority.kafka." override these.
+            Map<String, String> urgentOverrides = context.getSubProperties(Constants.PRIORITY_PREFIX +
+                    Constants.PROPERTY_PREFIX + ".");
+            urgentClusters = new ArrayList<KafkaCluster>(clusters.size());
+            for (KafkaCluster cluster : clusters) {
+                Properties urgentProps = new Properties();
+                urgentProps.putAll(cluster.getProducerProps());
+                urgentProps.put("producer.type", "sync");
+                urgentProps.put("request.required.acks", "-1");
+                for (Map.Entry<String, String> entry : urgentOverrides.entrySet()) {
+                    urgentProps.put(entry.getKey().trim(), entry.getValue().trim());
+                }
+                String urgentName = clusterNames == null ? Constants.PRIORITY_LANE_URGENT :
+                        cluster.getName() + "-" + Constants.PRIORITY_LANE_URGENT;
+                KafkaCluster urgentCluster = new KafkaCluster(urgentName, getName(), urgentProps, false,
+                        maxPendingBatches);
+                // the urgent producer publishes to the same brokers, so it shares the circuit breaker.
+                urgentCluster.setCircuitBreaker(cluster.getCircuitBreaker());
+                urgentClusters.add(urgentCluster);
+            }
+            if (priorityClassifier != null) {
+                logger.info("Classifying the events into priority lanes using the preprocessor.");
+            } else {
+                logger.info("Events with the header '" + priorityHeader + "' less than or equal to " +
+                        priorityThreshold + " are published through the urgent lane.");
+            }
+        }
+    }
+
+    /**
+     * Use the <code>PayloadEncoder</code> for the binary messages, warning if it replaces a serializer
+     * configured by the user.
+     */
+    private void usePayloadEncoder(Properties props) {
+        String serializer = props.getProperty("serializer.class");
+        if (serializer != null && !serializer.trim().equals(PayloadEncoder.class.getName())) {
+            logger.warn("Replacing the configured serializer " + serializer + " with " +
+                    PayloadEncoder.class.getName() + ", which supports both Strings and the binary messages of " +
+                    "the Avro conversion and the oversize handling.");
+        }
+        props.put("serializer.class", PayloadEncoder.class.getName());
+    }
+
+    /**
+     * Create the routing config from the given context. Besides the sink configuration, this is used
+     * with the contents of the reload file applied over the sink configuration.
+     */
+    private RoutingConfig createRouting(Context context, long version) {
         // get the message Preprocessor if set
+        MessagePreprocessor messagePreProcessor = null;
         String preprocessorClassName = context.getString(Constants.PREPROCESSOR);
         // if it's set create an instance using Java Reflection.
         if (preprocessorClassName != null) {
             try {
-                Class preprocessorClazz = Class.forName(preprocessorClassName.trim());
-                Object preprocessorObj = preprocessorClazz.newInstance();
-                if (preprocessorObj instanceof MessagePreprocessor) {
-                    messagePreProcessor = (MessagePreprocessor) preprocessorObj;
-                } else {
+                Class<? extends MessagePreprocessor> preprocessorClazz;
+                try {
+                    preprocessorClazz = Class.forName(preprocessorClassName.trim()).asSubclass(
+                            MessagePreprocessor.class);
+                } catch (ClassCastException e) {
                     String errorMsg = "Provided class for MessagePreprocessor does not implement " +
                             "'com.thilinamb.flume.sink.MessagePreprocessor'";
                     logger.error(errorMsg);
                     throw new IllegalArgumentException(errorMsg);
                 }
+                messagePreProcessor = preprocessorClazz.newInstance();
             } catch (ClassNotFoundException e) {
                 String errorMsg = "Error instantiating the MessagePreprocessor implementation.";
                 logger.error(errorMsg, e);
@@ -168,6 +1354,34 @@ public class KafkaSink extends AbstractSink implements Configurable {
             }
         }
 
+        boolean coalesce = context.getBoolean(Constants.COALESCE, false);
+        if (coalesce) {
+            logger.info("Coalescing the messages with the same topic and key within a batch.");
+        }
+
+        // set up the per topic rate limits if any.
+        double defaultRate = Double.parseDouble(context.getString(Constants.RATE_LIMIT_DEFAULT, "0").trim());
+        TopicRateLimiter rateLimiter = null;
+        Map<String, Double> topicRates = new HashMap<String, Double>();
+        Map<String, String> topicRateProps = context.getSubProperties(Constants.RATE_LIMIT_TOPIC_PREFIX);
+        for (Map.Entry<String, String> entry : topicRateProps.entrySet()) {
+            topicRates.put(entry.getKey().trim(), Double.parseDouble(entry.getValue().trim()));
+        }
+        if (defaultRate > 0 || !topicRates.isEmpty()) {
+            double burstSeconds = Double.parseDouble(
+                    context.getString(Constants.RATE_LIMIT_BURST_SECONDS, "1").trim());
+            int rateLimitMaxTopics = context.getInteger(Constants.RATE_LIMIT_MAX_TOPICS,
+                    Constants.DEFAULT_RATE_LIMIT_MAX_TOPICS);
+            if (rateLimitMaxTopics < 1) {
+                String errorMsg = "'" + Constants.RATE_LIMIT_MAX_TOPICS + "' should be positive.";
+                logger.error(errorMsg);
+                throw new IllegalArgumentException(errorMsg);
+            }
+            rateLimiter = new TopicRateLimiter(defaultRate, topicRates, burstSeconds, rateLimitMaxTopics);
+            logger.info("Rate limiting the topics. Default rate: " + defaultRate + ", topic rates: " + topicRates);
+        }
+
+        String topic = null;
         if (messagePreProcessor == null) {
             // MessagePreprocessor is not set. So read the topic from the config.
             topic = context.getString(Constants.TOPIC, Constants.DEFAULT_TOPIC);
@@ -178,5 +1392,206 @@ public class KafkaSink extends AbstractSink implements Configurable {
                 logger.info("Using the static topic: " + topic);
             }
         }
+
+        return new RoutingConfig(version, context, topic, messagePreProcessor, coalesce, rateLimiter);
+    }
+
+    /**
+     * Swap the routing config if the reload file has changed since it was last read. This is invoked
+     * between batches, and a batch in progress keeps publishing with the config it started with. If the
+     * reloaded config is invalid, the current config is kept.
+     */
+    private void reloadIfChanged() {
+        long now = System.currentTimeMillis();
+        if (now < nextReloadCheck) {
+            return;
+        }
+        synchronized (reloadLock) {
+            if (now < nextReloadCheck) {
+                return;
+            }
+            nextReloadCheck = now + reloadInterval;
+            long lastModified = reloadFile.lastModified();
+            if (lastModified == 0 || lastModified == reloadFileModified) {
+                return;
+            }
+            reloadFileModified = lastModified;
+            try {
+                Properties reloadProps = new Properties();
+                InputStream in = new FileInputStream(reloadFile);
+                try {
+                    reloadProps.load(in);
+                } finally {
+                    in.close();
+                }
+                // the reload file overrides the sink configuration.
+                Map<String, String> params = new HashMap<String, String>(context.getParameters());
+                for (String key : reloadProps.stringPropertyNames()) {
+                    String value = reloadProps.getProperty(key).trim();
+                    key = key.trim();
+                    if (key.startsWith(Constants.PRIORITY_PREFIX)) {
+                        if (!value.equals(context.getString(key))) {
+                            logger.warn("Ignoring the priority lane property '" + key + "' in " + reloadFile +
+                                    ". Changing the priority lanes requires restarting the sink.");
+                        }
+                        continue;
+                    }
+                    if (key.startsWith(Constants.PROPERTY_PREFIX + ".")) {
+                        String producerKey = key.substring(Constants.PROPERTY_PREFIX.length() + 1);
+                        if (!value.equals(producerProps.getProperty(producerKey))) {
+                            logger.warn("Ignoring the Kafka Producer property '" + producerKey + "' in " + reloadFile +
+                                    ". Changing the producer properties requires restarting the sink.");
+                        }
+                        continue;
+                    }
+                    params.put(key, value);
+                }
+                RoutingConfig reloaded = createRouting(new Context(params), routing.getVersion() + 1);
+                if (urgentClusters == null && reloaded.getPriorityClassifier() != null) {
+                    logger.warn("The reloaded preprocessor classifies the events by priority, but the priority " +
+                            "lanes are only set up when the sink is configured. Publishing all the events as bulk.");
+                }
+                routing = reloaded;
+                counter.setConfigVersion(reloaded.getVersion());
+                logger.info("Reloaded the routing config from " + reloadFile + ". Version: " + reloaded.getVersion());
+            } catch (IOException e) {
+                counter.incrementConfigReloadFailureCount();
+                logger.error("Error reading the reload file " + reloadFile + ". Keeping the current config.", e);
+            } catch (RuntimeException e) {
+                counter.incrementConfigReloadFailureCount();
+                logger.error("Invalid config in the reload file " + reloadFile + ". Keeping the current config.", e);
+            }
+        }
+    }
+
+    private int getRequiredAcks(Context context) {
+        String commitPolicy = context.getString(Constants.CLUSTERS_COMMIT_POLICY, Constants.COMMIT_POLICY_ALL).trim();
+        if (Constants.COMMIT_POLICY_ALL.equals(commitPolicy)) {
+            return clusters.size();
+        } else if (Constants.COMMIT_POLICY_QUORUM.equals(commitPolicy)) {
+            return clusters.size() / 2 + 1;
+        }
+        String errorMsg = "Unknown commit policy: " + commitPolicy + ". Supported policies are '" +
+                Constants.COMMIT_POLICY_ALL + "' and '" + Constants.COMMIT_POLICY_QUORUM + "'.";
+        logger.error(errorMsg);
+        throw new IllegalArgumentException(errorMsg);
+    }
+
+    private ClusterFailover createFailover(Context context) {
+        long latencyThreshold = context.getLong(Constants.FAILOVER_LATENCY_THRESHOLD_MS,
+                Constants.DEFAULT_FAILOVER_LATENCY_THRESHOLD_MS);
+        double errorRateThreshold = Double.parseDouble(context.getString(Constants.FAILOVER_ERROR_RATE_THRESHOLD,
+                Double.toString(Constants.DEFAULT_FAILOVER_ERROR_RATE_THRESHOLD)).trim());
+        int minSamples = context.getInteger(Constants.FAILOVER_MIN_SAMPLES, Constants.DEFAULT_FAILOVER_MIN_SAMPLES);
+        long probeInterval = context.getLong(Constants.FAILOVER_PROBE_INTERVAL_MS,
+                Constants.DEFAULT_FAILOVER_PROBE_INTERVAL_MS);
+        int failbackProbes = context.getInteger(Constants.FAILOVER_FAILBACK_PROBES,
+                Constants.DEFAULT_FAILOVER_FAILBACK_PROBES);
+        return new ClusterFailover(clusters, latencyThreshold, errorRateThreshold, minSamples, probeInterval,
+                failbackProbes, counter);
+    }
+
+    private SchemaRegistry createSchemaRegistry(Context avroContext) {
+        String registryClassName = avroContext.getString(AvroConstants.SCHEMA_REGISTRY,
+                FileSchemaRegistry.class.getName());
+        try {
+            Class<? extends SchemaRegistry> registryClazz;
+            try {
+                registryClazz = Class.forName(registryClassName.trim()).asSubclass(SchemaRegistry.class);
+            } catch (ClassCastException e) {
+                String errorMsg = "Provided class for SchemaRegistry does not implement " +
+                        "'com.thilinamb.flume.sink.avro.SchemaRegistry'";
+                logger.error(errorMsg);
+                throw new IllegalArgumentException(errorMsg);
+            }
+            SchemaRegistry schemaRegistry = new CachingSchemaRegistry(registryClazz.newInstance());
+            schemaRegistry.configure(avroContext);
+            return schemaRegistry;
+        } catch (ClassNotFoundException e) {
+            String errorMsg = "Error instantiating the SchemaRegistry implementation.";
+            logger.error(errorMsg, e);
+            throw new IllegalArgumentException(errorMsg, e);
+        } catch (InstantiationException e) {
+            String errorMsg = "Error instantiating the SchemaRegistry implementation.";
+            logger.error(errorMsg, e);
+            throw new IllegalArgumentException(errorMsg, e);
+        } catch (IllegalAccessException e) {
+            String errorMsg = "Error instantiating the SchemaRegistry implementation.";
+            logger.error(errorMsg, e);
+            throw new IllegalArgumentException(errorMsg, e);
+        }
+    }
+
+    /**
+     * Thrown when the throttled topics of a batch would not be let through within the maximum wait.
+     */
+    private static class ThrottledException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private ThrottledException() {
+            super("Topics of the batch are over their rate limits.");
+        }
+    }
+
+    /**
+     * Topic and key of a message, used to identify the messages superseding each other. The key is
+     * <code>null</code> for an unkeyed message.
+     */
+    private static class TopicKey {
+        private final String topic;
+        private final String key;
+
+        private TopicKey(String topic, String key) {
+            this.topic = topic;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TopicKey)) {
+                return false;
+            }
+            TopicKey other = (TopicKey) o;
+            return (key == null ? other.key == null : key.equals(other.key)) &&
+                    (topic == null ? other.topic == null : topic.equals(other.topic));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (topic == null ? 0 : topic.hashCode()) + (key == null ? 0 : key.hashCode());
+        }
+    }
+
+    /**
+     * Processes batches in a separate thread in the pipelined mode, so that a batch can be taken and
+     * preprocessed while the previous batch is being published. Backs off the same way as the sink runner
+     * when the channel is empty or a batch fails.
+     */
+    private class PipelineRunner implements Runnable {
+        @Override
+        public void run() {
+            long backoff = 0;
+            while (pipelineRunning) {
+                try {
+                    if (processBatch() == Status.READY) {
+                        backoff = 0;
+                        continue;
+                    }
+                } catch (EventDeliveryException e) {
+                    // the failure is already logged
+                } catch (Exception e) {
+                    logger.error("Unexpected error in the pipeline thread.", e);
+                }
+                backoff = Math.min(backoff + PIPELINE_BACKOFF_MS, PIPELINE_MAX_BACKOFF_MS);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
     }
 }
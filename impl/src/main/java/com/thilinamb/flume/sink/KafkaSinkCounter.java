@@ -0,0 +1,490 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * Counters of the Kafka Sink. In addition to the counters of a standard Flume sink, this
+ * keeps track of the counters specific to the optional stages of the Kafka Sink.
+ */
+public class KafkaSinkCounter extends MonitoredCounterGroup implements KafkaSinkCounterMBean {
+
+    // standard sink counters. Same names as in org.apache.flume.instrumentation.SinkCounter
+    private static final String COUNTER_CONNECTION_CREATED = "sink.connection.creation.count";
+    private static final String COUNTER_CONNECTION_CLOSED = "sink.connection.closed.count";
+    private static final String COUNTER_CONNECTION_FAILED = "sink.connection.failed.count";
+    private static final String COUNTER_BATCH_EMPTY = "sink.batch.empty";
+    private static final String COUNTER_BATCH_UNDERFLOW = "sink.batch.underflow";
+    private static final String COUNTER_BATCH_COMPLETE = "sink.batch.complete";
+    private static final String COUNTER_EVENT_DRAIN_ATTEMPT = "sink.event.drain.attempt";
+    private static final String COUNTER_EVENT_DRAIN_SUCCESS = "sink.event.drain.sucess";
+
+    // Kafka Sink specific counters
+    private static final String COUNTER_EVENT_COALESCED = "sink.kafka.event.coalesced";
+    private static final String COUNTER_EVENT_THROTTLED = "sink.kafka.event.throttled";
+    private static final String COUNTER_THROTTLE_TIME = "sink.kafka.throttle.time.ms";
+    private static final String COUNTER_CLUSTER_SWITCH = "sink.kafka.cluster.switch";
+    private static final String COUNTER_ACTIVE_CLUSTER = "sink.kafka.cluster.active";
+    private static final String COUNTER_BREAKER_OPEN = "sink.kafka.breaker.open";
+    private static final String COUNTER_BREAKER_HALF_OPEN = "sink.kafka.breaker.half.open";
+    private static final String COUNTER_BREAKER_CLOSED = "sink.kafka.breaker.closed";
+    private static final String COUNTER_BREAKER_REJECTED = "sink.kafka.breaker.rejected";
+    private static final String COUNTER_URGENT_EVENT = "sink.kafka.lane.urgent.event";
+    private static final String COUNTER_URGENT_QUEUE_TIME = "sink.kafka.lane.urgent.queue.time.ms";
+    private static final String COUNTER_BULK_EVENT = "sink.kafka.lane.bulk.event";
+    private static final String COUNTER_BULK_QUEUE_TIME = "sink.kafka.lane.bulk.queue.time.ms";
+    private static final String COUNTER_DEDUP_LOOKUP = "sink.kafka.dedup.lookup";
+    private static final String COUNTER_DEDUP_HIT = "sink.kafka.dedup.hit";
+    private static final String COUNTER_DEDUP_SIZE = "sink.kafka.dedup.size";
+    private static final String COUNTER_ROLLUP_EVENT = "sink.kafka.rollup.event";
+    private static final String COUNTER_ROLLUP_OVERFLOW = "sink.kafka.rollup.overflow";
+    private static final String COUNTER_ROLLUP_SUMMARY = "sink.kafka.rollup.summary";
+    private static final String COUNTER_ROLLUP_PUBLISH_FAILURE = "sink.kafka.rollup.publish.failure";
+    private static final String COUNTER_OVERSIZE_COMPRESSED = "sink.kafka.oversize.compressed";
+    private static final String COUNTER_OVERSIZE_SPLIT = "sink.kafka.oversize.split";
+    private static final String COUNTER_OVERSIZE_CHUNK = "sink.kafka.oversize.chunk";
+    private static final String COUNTER_OVERSIZE_DROPPED = "sink.kafka.oversize.dropped";
+    private static final String COUNTER_DRAIN_DURATION = "sink.kafka.drain.duration.ms";
+    private static final String COUNTER_DRAIN_LEFTOVER_EVENT = "sink.kafka.drain.leftover.event";
+    private static final String COUNTER_DRAIN_TIMEOUT = "sink.kafka.drain.timeout";
+    private static final String COUNTER_TOPIC_CACHE_HIT = "sink.kafka.topic.cache.hit";
+    private static final String COUNTER_TOPIC_CACHE_OVERFLOW = "sink.kafka.topic.cache.overflow";
+    private static final String COUNTER_TOPIC_CACHE_SIZE = "sink.kafka.topic.cache.size";
+    private static final String COUNTER_TOPIC_CREATION_THROTTLED = "sink.kafka.topic.creation.throttled";
+    private static final String COUNTER_AVRO_CONVERSION_FAILURE = "sink.kafka.avro.conversion.failure";
+    private static final String COUNTER_CONFIG_VERSION = "sink.kafka.config.version";
+    private static final String COUNTER_CONFIG_RELOAD_FAILURE = "sink.kafka.config.reload.failure";
+
+    private static final String[] ATTRIBUTES = {
+            COUNTER_CONNECTION_CREATED, COUNTER_CONNECTION_CLOSED, COUNTER_CONNECTION_FAILED,
+            COUNTER_BATCH_EMPTY, COUNTER_BATCH_UNDERFLOW, COUNTER_BATCH_COMPLETE,
+            COUNTER_EVENT_DRAIN_ATTEMPT, COUNTER_EVENT_DRAIN_SUCCESS,
+            COUNTER_EVENT_COALESCED, COUNTER_EVENT_THROTTLED, COUNTER_THROTTLE_TIME,
+            COUNTER_CLUSTER_SWITCH, COUNTER_ACTIVE_CLUSTER,
+            COUNTER_BREAKER_OPEN, COUNTER_BREAKER_HALF_OPEN, COUNTER_BREAKER_CLOSED, COUNTER_BREAKER_REJECTED,
+            COUNTER_URGENT_EVENT, COUNTER_URGENT_QUEUE_TIME, COUNTER_BULK_EVENT, COUNTER_BULK_QUEUE_TIME,
+            COUNTER_DEDUP_LOOKUP, COUNTER_DEDUP_HIT, COUNTER_DEDUP_SIZE,
+            COUNTER_ROLLUP_EVENT, COUNTER_ROLLUP_OVERFLOW, COUNTER_ROLLUP_SUMMARY, COUNTER_ROLLUP_PUBLISH_FAILURE,
+            COUNTER_OVERSIZE_COMPRESSED, COUNTER_OVERSIZE_SPLIT, COUNTER_OVERSIZE_CHUNK, COUNTER_OVERSIZE_DROPPED,
+            COUNTER_DRAIN_DURATION, COUNTER_DRAIN_LEFTOVER_EVENT, COUNTER_DRAIN_TIMEOUT,
+            COUNTER_TOPIC_CACHE_HIT, COUNTER_TOPIC_CACHE_OVERFLOW, COUNTER_TOPIC_CACHE_SIZE,
+            COUNTER_TOPIC_CREATION_THROTTLED, COUNTER_AVRO_CONVERSION_FAILURE,
+            COUNTER_CONFIG_VERSION, COUNTER_CONFIG_RELOAD_FAILURE
+    };
+
+    public KafkaSinkCounter(String name) {
+        super(Type.SINK, name, ATTRIBUTES);
+    }
+
+    @Override
+    public long getConnectionCreatedCount() {
+        return get(COUNTER_CONNECTION_CREATED);
+    }
+
+    public long incrementConnectionCreatedCount() {
+        return increment(COUNTER_CONNECTION_CREATED);
+    }
+
+    @Override
+    public long getConnectionClosedCount() {
+        return get(COUNTER_CONNECTION_CLOSED);
+    }
+
+    public long incrementConnectionClosedCount() {
+        return increment(COUNTER_CONNECTION_CLOSED);
+    }
+
+    @Override
+    public long getConnectionFailedCount() {
+        return get(COUNTER_CONNECTION_FAILED);
+    }
+
+    public long incrementConnectionFailedCount() {
+        return increment(COUNTER_CONNECTION_FAILED);
+    }
+
+    @Override
+    public long getBatchEmptyCount() {
+        return get(COUNTER_BATCH_EMPTY);
+    }
+
+    public long incrementBatchEmptyCount() {
+        return increment(COUNTER_BATCH_EMPTY);
+    }
+
+    @Override
+    public long getBatchUnderflowCount() {
+        return get(COUNTER_BATCH_UNDERFLOW);
+    }
+
+    public long incrementBatchUnderflowCount() {
+        return increment(COUNTER_BATCH_UNDERFLOW);
+    }
+
+    @Override
+    public long getBatchCompleteCount() {
+        return get(COUNTER_BATCH_COMPLETE);
+    }
+
+    public long incrementBatchCompleteCount() {
+        return increment(COUNTER_BATCH_COMPLETE);
+    }
+
+    @Override
+    public long getEventDrainAttemptCount() {
+        return get(COUNTER_EVENT_DRAIN_ATTEMPT);
+    }
+
+    public long addToEventDrainAttemptCount(long delta) {
+        return addAndGet(COUNTER_EVENT_DRAIN_ATTEMPT, delta);
+    }
+
+    @Override
+    public long getEventDrainSuccessCount() {
+        return get(COUNTER_EVENT_DRAIN_SUCCESS);
+    }
+
+    public long addToEventDrainSuccessCount(long delta) {
+        return addAndGet(COUNTER_EVENT_DRAIN_SUCCESS, delta);
+    }
+
+    @Override
+    public long getEventCoalescedCount() {
+        return get(COUNTER_EVENT_COALESCED);
+    }
+
+    public long addToEventCoalescedCount(long delta) {
+        return addAndGet(COUNTER_EVENT_COALESCED, delta);
+    }
+
+    @Override
+    public long getEventThrottledCount() {
+        return get(COUNTER_EVENT_THROTTLED);
+    }
+
+    public long addToEventThrottledCount(long delta) {
+        return addAndGet(COUNTER_EVENT_THROTTLED, delta);
+    }
+
+    @Override
+    public long getThrottleTimeMillis() {
+        return get(COUNTER_THROTTLE_TIME);
+    }
+
+    public long addToThrottleTimeMillis(long delta) {
+        return addAndGet(COUNTER_THROTTLE_TIME, delta);
+    }
+
+    @Override
+    public long getClusterSwitchCount() {
+        return get(COUNTER_CLUSTER_SWITCH);
+    }
+
+    public long incrementClusterSwitchCount() {
+        return increment(COUNTER_CLUSTER_SWITCH);
+    }
+
+    /**
+     * @return index of the active cluster in the failover mode.
+     */
+    @Override
+    public long getActiveCluster() {
+        return get(COUNTER_ACTIVE_CLUSTER);
+    }
+
+    public void setActiveCluster(long index) {
+        set(COUNTER_ACTIVE_CLUSTER, index);
+    }
+
+    @Override
+    public long getBreakerOpenCount() {
+        return get(COUNTER_BREAKER_OPEN);
+    }
+
+    public long incrementBreakerOpenCount() {
+        return increment(COUNTER_BREAKER_OPEN);
+    }
+
+    @Override
+    public long getBreakerHalfOpenCount() {
+        return get(COUNTER_BREAKER_HALF_OPEN);
+    }
+
+    public long incrementBreakerHalfOpenCount() {
+        return increment(COUNTER_BREAKER_HALF_OPEN);
+    }
+
+    @Override
+    public long getBreakerClosedCount() {
+        return get(COUNTER_BREAKER_CLOSED);
+    }
+
+    public long incrementBreakerClosedCount() {
+        return increment(COUNTER_BREAKER_CLOSED);
+    }
+
+    /**
+     * @return number of times the sink backed off without taking events because of an open breaker.
+     */
+    @Override
+    public long getBreakerRejectedCount() {
+        return get(COUNTER_BREAKER_REJECTED);
+    }
+
+    public long incrementBreakerRejectedCount() {
+        return increment(COUNTER_BREAKER_REJECTED);
+    }
+
+    @Override
+    public long getUrgentEventCount() {
+        return get(COUNTER_URGENT_EVENT);
+    }
+
+    /**
+     * @return total queue time of the events published through the urgent lane. Divide by the
+     * event count for the average.
+     */
+    @Override
+    public long getUrgentQueueTimeMillis() {
+        return get(COUNTER_URGENT_QUEUE_TIME);
+    }
+
+    public void addToUrgentLane(long eventCount, long queueTimeMillis) {
+        addAndGet(COUNTER_URGENT_EVENT, eventCount);
+        addAndGet(COUNTER_URGENT_QUEUE_TIME, queueTimeMillis);
+    }
+
+    @Override
+    public long getBulkEventCount() {
+        return get(COUNTER_BULK_EVENT);
+    }
+
+    /**
+     * @return total queue time of the events published through the bulk lane. Divide by the
+     * event count for the average.
+     */
+    @Override
+    public long getBulkQueueTimeMillis() {
+        return get(COUNTER_BULK_QUEUE_TIME);
+    }
+
+    public void addToBulkLane(long eventCount, long queueTimeMillis) {
+        addAndGet(COUNTER_BULK_EVENT, eventCount);
+        addAndGet(COUNTER_BULK_QUEUE_TIME, queueTimeMillis);
+    }
+
+    @Override
+    public long getDedupLookupCount() {
+        return get(COUNTER_DEDUP_LOOKUP);
+    }
+
+    @Override
+    public long getDedupHitCount() {
+        return get(COUNTER_DEDUP_HIT);
+    }
+
+    public void addToDedupLookups(long lookups, long hits) {
+        addAndGet(COUNTER_DEDUP_LOOKUP, lookups);
+        addAndGet(COUNTER_DEDUP_HIT, hits);
+    }
+
+    @Override
+    public long getDedupSize() {
+        return get(COUNTER_DEDUP_SIZE);
+    }
+
+    public void setDedupSize(long size) {
+        set(COUNTER_DEDUP_SIZE, size);
+    }
+
+    @Override
+    public double getDedupHitRate() {
+        long lookups = getDedupLookupCount();
+        return lookups == 0 ? 0 : (double) getDedupHitCount() / lookups;
+    }
+
+    /**
+     * @return estimated probability that an event is mistaken for a duplicate, given the number of
+     * 64 bit ids currently remembered.
+     */
+    @Override
+    public double getDedupFalsePositiveProbability() {
+        return getDedupSize() / Math.pow(2, 64);
+    }
+
+    /**
+     * @return version of the routing config in use, incremented each time it's reloaded.
+     */
+    @Override
+    public long getRollupEventCount() {
+        return get(COUNTER_ROLLUP_EVENT);
+    }
+
+    @Override
+    public long getRollupOverflowCount() {
+        return get(COUNTER_ROLLUP_OVERFLOW);
+    }
+
+    public void addToRollupEventCount(long count, long overflowCount) {
+        addAndGet(COUNTER_ROLLUP_EVENT, count);
+        addAndGet(COUNTER_ROLLUP_OVERFLOW, overflowCount);
+    }
+
+    @Override
+    public long getRollupSummaryCount() {
+        return get(COUNTER_ROLLUP_SUMMARY);
+    }
+
+    public long addToRollupSummaryCount(long count) {
+        return addAndGet(COUNTER_ROLLUP_SUMMARY, count);
+    }
+
+    @Override
+    public long getRollupPublishFailureCount() {
+        return get(COUNTER_ROLLUP_PUBLISH_FAILURE);
+    }
+
+    public long incrementRollupPublishFailureCount() {
+        return increment(COUNTER_ROLLUP_PUBLISH_FAILURE);
+    }
+
+    @Override
+    public long getOversizeCompressedCount() {
+        return get(COUNTER_OVERSIZE_COMPRESSED);
+    }
+
+    public long incrementOversizeCompressedCount() {
+        return increment(COUNTER_OVERSIZE_COMPRESSED);
+    }
+
+    @Override
+    public long getOversizeSplitCount() {
+        return get(COUNTER_OVERSIZE_SPLIT);
+    }
+
+    @Override
+    public long getOversizeChunkCount() {
+        return get(COUNTER_OVERSIZE_CHUNK);
+    }
+
+    public void addToOversizeSplitCount(long chunkCount) {
+        increment(COUNTER_OVERSIZE_SPLIT);
+        addAndGet(COUNTER_OVERSIZE_CHUNK, chunkCount);
+    }
+
+    @Override
+    public long getOversizeDroppedCount() {
+        return get(COUNTER_OVERSIZE_DROPPED);
+    }
+
+    public long incrementOversizeDroppedCount() {
+        return increment(COUNTER_OVERSIZE_DROPPED);
+    }
+
+    @Override
+    public long getDrainDurationMillis() {
+        return get(COUNTER_DRAIN_DURATION);
+    }
+
+    public void setDrainDurationMillis(long duration) {
+        set(COUNTER_DRAIN_DURATION, duration);
+    }
+
+    @Override
+    public long getDrainLeftoverEventCount() {
+        return get(COUNTER_DRAIN_LEFTOVER_EVENT);
+    }
+
+    public void setDrainLeftoverEventCount(long count) {
+        set(COUNTER_DRAIN_LEFTOVER_EVENT, count);
+    }
+
+    @Override
+    public long getDrainTimeoutCount() {
+        return get(COUNTER_DRAIN_TIMEOUT);
+    }
+
+    public long incrementDrainTimeoutCount() {
+        return increment(COUNTER_DRAIN_TIMEOUT);
+    }
+
+    @Override
+    public long getTopicCacheHitCount() {
+        return get(COUNTER_TOPIC_CACHE_HIT);
+    }
+
+    public long incrementTopicCacheHitCount() {
+        return increment(COUNTER_TOPIC_CACHE_HIT);
+    }
+
+    @Override
+    public long getTopicCacheOverflowCount() {
+        return get(COUNTER_TOPIC_CACHE_OVERFLOW);
+    }
+
+    public long incrementTopicCacheOverflowCount() {
+        return increment(COUNTER_TOPIC_CACHE_OVERFLOW);
+    }
+
+    @Override
+    public long getTopicCacheSize() {
+        return get(COUNTER_TOPIC_CACHE_SIZE);
+    }
+
+    public void setTopicCacheSize(long size) {
+        set(COUNTER_TOPIC_CACHE_SIZE, size);
+    }
+
+    @Override
+    public long getTopicCreationThrottledCount() {
+        return get(COUNTER_TOPIC_CREATION_THROTTLED);
+    }
+
+    public long incrementTopicCreationThrottledCount() {
+        return increment(COUNTER_TOPIC_CREATION_THROTTLED);
+    }
+
+    @Override
+    public long getAvroConversionFailureCount() {
+        return get(COUNTER_AVRO_CONVERSION_FAILURE);
+    }
+
+    public long incrementAvroConversionFailureCount() {
+        return increment(COUNTER_AVRO_CONVERSION_FAILURE);
+    }
+
+    @Override
+    public long getConfigVersion() {
+        return get(COUNTER_CONFIG_VERSION);
+    }
+
+    public void setConfigVersion(long version) {
+        set(COUNTER_CONFIG_VERSION, version);
+    }
+
+    @Override
+    public long getConfigReloadFailureCount() {
+        return get(COUNTER_CONFIG_RELOAD_FAILURE);
+    }
+
+    public long incrementConfigReloadFailureCount() {
+        return increment(COUNTER_CONFIG_RELOAD_FAILURE);
+    }
+}
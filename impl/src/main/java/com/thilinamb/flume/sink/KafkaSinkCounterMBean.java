@@ -0,0 +1,99 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import org.apache.flume.instrumentation.SinkCounterMBean;
+
+/**
+ * JMX attributes exposed by the <code>KafkaSinkCounter</code>.
+ */
+public interface KafkaSinkCounterMBean extends SinkCounterMBean {
+
+    public long getEventCoalescedCount();
+
+    public long getEventThrottledCount();
+
+    public long getThrottleTimeMillis();
+
+    public long getClusterSwitchCount();
+
+    public long getActiveCluster();
+
+    public long getBreakerOpenCount();
+
+    public long getBreakerHalfOpenCount();
+
+    public long getBreakerClosedCount();
+
+    public long getBreakerRejectedCount();
+
+    public long getUrgentEventCount();
+
+    public long getUrgentQueueTimeMillis();
+
+    public long getBulkEventCount();
+
+    public long getBulkQueueTimeMillis();
+
+    public long getDedupLookupCount();
+
+    public long getDedupHitCount();
+
+    public long getDedupSize();
+
+    public double getDedupHitRate();
+
+    public double getDedupFalsePositiveProbability();
+
+    public long getRollupEventCount();
+
+    public long getRollupOverflowCount();
+
+    public long getRollupSummaryCount();
+
+    public long getRollupPublishFailureCount();
+
+    public long getOversizeCompressedCount();
+
+    public long getOversizeSplitCount();
+
+    public long getOversizeChunkCount();
+
+    public long getOversizeDroppedCount();
+
+    public long getDrainDurationMillis();
+
+    public long getDrainLeftoverEventCount();
+
+    public long getDrainTimeoutCount();
+
+    public long getTopicCacheHitCount();
+
+    public long getTopicCacheOverflowCount();
+
+    public long getTopicCacheSize();
+
+    public long getTopicCreationThrottledCount();
+
+    public long getAvroConversionFailureCount();
+
+    public long getConfigVersion();
+
+    public long getConfigReloadFailureCount();
+}
@@ -0,0 +1,159 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import org.xerial.snappy.Snappy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The envelope of the oversize messages, which are compressed individually or split into chunks by the
+ * sink. Kafka 0.8 messages have no headers, so the envelope is a fixed size header in front of the
+ * payload, all in big endian order:
+ * <pre>
+ *   magic        4 bytes   0xFE 'F' 'K' 'S'
+ *   version      1 byte
+ *   codec        1 byte    0 none, 1 gzip, 2 snappy
+ *   message id   8 bytes   shared by the chunks of a message
+ *   chunk index  4 bytes
+ *   chunk count  4 bytes
+ *   total length 4 bytes   length of the (compressed) content of the whole message
+ *   offset       4 bytes   offset of the chunk within the content
+ *   data
+ * </pre>
+ * The magic starts with a byte that never appears in UTF-8 text, so an envelope can't be mistaken for
+ * a text message. Use <code>MessageReassembler</code> to restore the original messages when consuming.
+ */
+public class MessageEnvelope {
+
+    public static final int HEADER_SIZE = 30;
+    public static final byte CODEC_NONE = 0;
+    public static final byte CODEC_GZIP = 1;
+    public static final byte CODEC_SNAPPY = 2;
+
+    private static final byte[] MAGIC = {(byte) 0xFE, 'F', 'K', 'S'};
+    private static final byte VERSION = 1;
+
+    private MessageEnvelope() {
+    }
+
+    /**
+     * Wrap a chunk of the content of a message.
+     */
+    static byte[] wrap(byte codec, long id, int index, int count, byte[] content, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+        buffer.put(MAGIC).put(VERSION).put(codec).putLong(id).putInt(index).putInt(count)
+                .putInt(content.length).putInt(offset).put(content, offset, length);
+        return buffer.array();
+    }
+
+    /**
+     * @return <code>true</code> if the payload is wrapped in an envelope.
+     */
+    public static boolean isEnvelope(byte[] payload) {
+        if (payload == null || payload.length < HEADER_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (payload[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return payload[MAGIC.length] == VERSION;
+    }
+
+    public static byte getCodec(byte[] envelope) {
+        return envelope[5];
+    }
+
+    public static long getId(byte[] envelope) {
+        return ByteBuffer.wrap(envelope).getLong(6);
+    }
+
+    public static int getIndex(byte[] envelope) {
+        return ByteBuffer.wrap(envelope).getInt(14);
+    }
+
+    public static int getCount(byte[] envelope) {
+        return ByteBuffer.wrap(envelope).getInt(18);
+    }
+
+    public static int getTotalLength(byte[] envelope) {
+        return ByteBuffer.wrap(envelope).getInt(22);
+    }
+
+    public static int getOffset(byte[] envelope) {
+        return ByteBuffer.wrap(envelope).getInt(26);
+    }
+
+    /**
+     * @param name "gzip" or "snappy"
+     */
+    static byte codec(String name) {
+        if ("gzip".equals(name)) {
+            return CODEC_GZIP;
+        } else if ("snappy".equals(name)) {
+            return CODEC_SNAPPY;
+        }
+        throw new IllegalArgumentException("Unknown codec '" + name + "'. Should be either gzip or snappy.");
+    }
+
+    static byte[] compress(byte codec, byte[] data) throws IOException {
+        switch (codec) {
+            case CODEC_NONE:
+                return data;
+            case CODEC_GZIP:
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+                GZIPOutputStream gzip = new GZIPOutputStream(out);
+                gzip.write(data);
+                gzip.close();
+                return out.toByteArray();
+            case CODEC_SNAPPY:
+                return Snappy.compress(data);
+            default:
+                throw new IOException("Unknown codec " + codec);
+        }
+    }
+
+    static byte[] decompress(byte codec, byte[] data) throws IOException {
+        switch (codec) {
+            case CODEC_NONE:
+                return data;
+            case CODEC_GZIP:
+                GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data));
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = gzip.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+                gzip.close();
+                return out.toByteArray();
+            case CODEC_SNAPPY:
+                return Snappy.uncompress(data);
+            default:
+                throw new IOException("Unknown codec " + codec);
+        }
+    }
+}
@@ -47,6 +47,9 @@ import org.apache.flume.Event;
  * Also make sure to keep the default constructor in the implementation, because
  * it is used to instantiate objects through reflection.
  *
+ * If the property "preprocessor.threads" is set, the methods are invoked concurrently
+ * from multiple threads. So the implementation should be thread safe in that case.
+ *
  * The implementation should be compiled and included in the Flume classpath
  * when starting Flume. And the property "preprocessor" should be set in
  * the Flume configuration file.
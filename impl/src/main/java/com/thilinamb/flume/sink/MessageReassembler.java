@@ -0,0 +1,173 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Restores the oversize messages published by the sink, for the consumers of the topics. Pass every
+ * consumed payload to <code>add</code>. Payloads not wrapped in a <code>MessageEnvelope</code> are
+ * returned as they are, compressed messages are decompressed, and the chunks of a split message are
+ * collected until the last one arrives.
+ *
+ * The chunks of a message share the key of the message, so they arrive in order from a single
+ * partition. Duplicate chunks, redelivered by Kafka, are ignored. The messages with missing chunks
+ * are dropped once they time out or when too many messages are incomplete.
+ *
+ * <pre>
+ *   MessageReassembler reassembler = new MessageReassembler(1000, 60000);
+ *   for (MessageAndMetadata&lt;byte[], byte[]&gt; message : stream) {
+ *       byte[] payload = reassembler.add(message.message());
+ *       if (payload != null) {
+ *           process(payload);
+ *       }
+ *   }
+ * </pre>
+ */
+public class MessageReassembler {
+
+    // largest message the sink splits with the default oversize settings.
+    public static final int DEFAULT_MAX_MESSAGE_BYTES =
+            Constants.DEFAULT_OVERSIZE_MAX_BYTES * Constants.DEFAULT_OVERSIZE_MAX_CHUNKS;
+
+    private final int maxPendingMessages;
+    private final long timeoutMillis;
+    private final int maxMessageBytes;
+    private final LinkedHashMap<Long, PendingMessage> pending = new LinkedHashMap<Long, PendingMessage>();
+    private long droppedCount;
+
+    /**
+     * @param maxPendingMessages maximum number of incomplete messages kept.
+     * @param timeoutMillis time to wait for the remaining chunks of a message since its first chunk.
+     */
+    public MessageReassembler(int maxPendingMessages, long timeoutMillis) {
+        this(maxPendingMessages, timeoutMillis, DEFAULT_MAX_MESSAGE_BYTES);
+    }
+
+    /**
+     * @param maxPendingMessages maximum number of incomplete messages kept.
+     * @param timeoutMillis time to wait for the remaining chunks of a message since its first chunk.
+     * @param maxMessageBytes maximum (compressed) length of a message, which bounds the memory taken by a
+     *                        message claimed by the header of a chunk.
+     */
+    public MessageReassembler(int maxPendingMessages, long timeoutMillis, int maxMessageBytes) {
+        this.maxPendingMessages = maxPendingMessages;
+        this.timeoutMillis = timeoutMillis;
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    /**
+     * @param payload payload of a consumed message
+     * @return the original payload, or <code>null</code> if the chunks of the message are not complete yet.
+     * @throws IOException if a compressed message can't be decompressed, or the envelope header is invalid.
+     */
+    public synchronized byte[] add(byte[] payload) throws IOException {
+        if (!MessageEnvelope.isEnvelope(payload)) {
+            return payload;
+        }
+        byte codec = MessageEnvelope.getCodec(payload);
+        int count = MessageEnvelope.getCount(payload);
+        int totalLength = MessageEnvelope.getTotalLength(payload);
+        int dataLength = payload.length - MessageEnvelope.HEADER_SIZE;
+        // the header comes from the consumed payload, so it's checked before allocating anything for it.
+        if (count < 1 || totalLength < 0 || totalLength > maxMessageBytes || count > Math.max(1, totalLength)) {
+            throw new IOException("Invalid envelope header. Chunk count: " + count + ", total length: " +
+                    totalLength + ".");
+        }
+        if (count == 1) {
+            if (dataLength != totalLength) {
+                throw new IOException("Length of the message " + dataLength + " does not match its header.");
+            }
+            byte[] content = new byte[dataLength];
+            System.arraycopy(payload, MessageEnvelope.HEADER_SIZE, content, 0, dataLength);
+            return MessageEnvelope.decompress(codec, content);
+        }
+
+        long id = MessageEnvelope.getId(payload);
+        int index = MessageEnvelope.getIndex(payload);
+        int offset = MessageEnvelope.getOffset(payload);
+        if (index < 0 || index >= count || offset < 0 || offset > totalLength - dataLength) {
+            throw new IOException("Chunk " + index + " of the message " + id + " exceeds the length of the message.");
+        }
+        long now = System.currentTimeMillis();
+        expire(now);
+        PendingMessage message = pending.get(id);
+        if (message == null) {
+            message = new PendingMessage(new byte[totalLength], new boolean[count], now);
+            pending.put(id, message);
+            if (pending.size() > maxPendingMessages) {
+                pending.remove(pending.keySet().iterator().next());
+                droppedCount++;
+            }
+        } else if (message.received.length != count || message.content.length != totalLength) {
+            throw new IOException("Chunk " + index + " of the message " + id + " does not match its other chunks.");
+        }
+        if (message.received[index]) {
+            return null;
+        }
+        System.arraycopy(payload, MessageEnvelope.HEADER_SIZE, message.content, offset, dataLength);
+        message.received[index] = true;
+        if (++message.receivedCount < count) {
+            return null;
+        }
+        pending.remove(id);
+        return MessageEnvelope.decompress(codec, message.content);
+    }
+
+    private void expire(long now) {
+        Iterator<Map.Entry<Long, PendingMessage>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().firstSeen + timeoutMillis > now) {
+                break;
+            }
+            it.remove();
+            droppedCount++;
+        }
+    }
+
+    /**
+     * @return number of messages waiting for their remaining chunks.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return number of incomplete messages dropped so far.
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    private static class PendingMessage {
+        private final byte[] content;
+        private final boolean[] received;
+        private final long firstSeen;
+        private int receivedCount;
+
+        private PendingMessage(byte[] content, boolean[] received, long firstSeen) {
+            this.content = content;
+            this.received = received;
+            this.firstSeen = firstSeen;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import kafka.producer.KeyedMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Keeps the messages under the size limit of the brokers, so that an occasional huge event does not
+ * fail the whole batch. A message over the limit is compressed individually, and if it's still over
+ * the limit, split into chunks published in order under the same key. The compressed messages and
+ * the chunks are wrapped in a <code>MessageEnvelope</code>.
+ *
+ * A message which can't be brought under the limit, because compressing is not enough and splitting
+ * is not enabled or it would take too many chunks, is dropped.
+ */
+class OversizeHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(OversizeHandler.class);
+
+    private final int maxBytes;
+    private final boolean compress;
+    private final boolean split;
+    private final byte codec;
+    private final int maxChunks;
+    private final String encoding;
+    private final KafkaSinkCounter counter;
+    private final Random random = new Random();
+
+    /**
+     * @param maxBytes maximum size of a payload
+     * @param compress whether to compress the payloads over the limit.
+     * @param split whether to split the payloads over the limit.
+     * @param codec compression codec, one of the <code>MessageEnvelope</code> codecs.
+     * @param maxChunks maximum number of chunks per message
+     * @param encoding character set used by the producer to encode the string payloads.
+     */
+    OversizeHandler(int maxBytes, boolean compress, boolean split, byte codec, int maxChunks, String encoding,
+                    KafkaSinkCounter counter) {
+        this.maxBytes = maxBytes;
+        this.compress = compress;
+        this.split = split;
+        this.codec = codec;
+        this.maxChunks = maxChunks;
+        this.encoding = encoding;
+        this.counter = counter;
+    }
+
+    /**
+     * @return the messages with the oversize ones replaced, or the given list if none is over the limit.
+     */
+    List<KeyedMessage<String, Object>> fit(List<KeyedMessage<String, Object>> messages) {
+        List<KeyedMessage<String, Object>> fitted = null;
+        for (int i = 0; i < messages.size(); i++) {
+            KeyedMessage<String, Object> message = messages.get(i);
+            List<KeyedMessage<String, Object>> replacement = fit(message);
+            if (replacement != null && fitted == null) {
+                fitted = new ArrayList<KeyedMessage<String, Object>>(messages.size() + replacement.size());
+                fitted.addAll(messages.subList(0, i));
+            }
+            if (replacement != null) {
+                fitted.addAll(replacement);
+            } else if (fitted != null) {
+                fitted.add(message);
+            }
+        }
+        return fitted == null ? messages : fitted;
+    }
+
+    /**
+     * @return the messages replacing the given one, or <code>null</code> if it's within the limit.
+     */
+    private List<KeyedMessage<String, Object>> fit(KeyedMessage<String, Object> message) {
+        Object payload = message.message();
+        byte[] bytes;
+        if (payload == null) {
+            return null;
+        } else if (payload instanceof byte[]) {
+            bytes = (byte[]) payload;
+        } else {
+            String text = payload.toString();
+            // a character takes at most three bytes, so most strings don't have to be encoded to tell.
+            if ((long) text.length() * 3 <= maxBytes) {
+                return null;
+            }
+            try {
+                bytes = text.getBytes(encoding);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalArgumentException("Unsupported encoding: " + encoding, e);
+            }
+        }
+        if (bytes.length <= maxBytes) {
+            return null;
+        }
+
+        long id = random.nextLong();
+        byte[] content = bytes;
+        byte contentCodec = MessageEnvelope.CODEC_NONE;
+        if (compress) {
+            byte[] compressed;
+            try {
+                compressed = MessageEnvelope.compress(codec, bytes);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to compress a message of " + bytes.length + " bytes.", e);
+            }
+            if (compressed.length < bytes.length) {
+                content = compressed;
+                contentCodec = codec;
+            }
+            if (content.length + MessageEnvelope.HEADER_SIZE <= maxBytes) {
+                counter.incrementOversizeCompressedCount();
+                return Collections.singletonList(new KeyedMessage<String, Object>(message.topic(), message.key(),
+                        MessageEnvelope.wrap(contentCodec, id, 0, 1, content, 0, content.length)));
+            }
+        }
+        int chunkSize = maxBytes - MessageEnvelope.HEADER_SIZE;
+        int chunkCount = (content.length + chunkSize - 1) / chunkSize;
+        if (!split || chunkCount > maxChunks) {
+            counter.incrementOversizeDroppedCount();
+            logger.error("Dropped a message of " + bytes.length + " bytes to the topic " + message.topic() +
+                    ", which does not fit in " + (split ? maxChunks + " chunks of " : "") + maxBytes + " bytes.");
+            return Collections.emptyList();
+        }
+        // the chunks have to go to the same partition, so a message without a key is keyed by its id.
+        String key = message.key() != null ? message.key() : Long.toHexString(id);
+        List<KeyedMessage<String, Object>> chunks = new ArrayList<KeyedMessage<String, Object>>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            int offset = i * chunkSize;
+            chunks.add(new KeyedMessage<String, Object>(message.topic(), key, MessageEnvelope.wrap(contentCodec, id,
+                    i, chunkCount, content, offset, Math.min(chunkSize, content.length - offset))));
+        }
+        counter.addToOversizeSplitCount(chunkCount);
+        return chunks;
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import kafka.serializer.Encoder;
+import kafka.utils.VerifiableProperties;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Kafka <code>Encoder</code> used by the sink when the published payload can either be a String
+ * or a byte array. Strings are encoded using the character set set through the
+ * producer property "serializer.encoding" (UTF-8 by default) while byte arrays
+ * are passed through without any modification.
+ *
+ * This encoder is set as the value serializer of the producer whenever a binary
+ * conversion stage (such as Avro) is enabled in the sink.
+ */
+public class PayloadEncoder implements Encoder<Object> {
+
+    private final String encoding;
+
+    public PayloadEncoder(VerifiableProperties props) {
+        if (props == null) {
+            encoding = "UTF8";
+        } else {
+            encoding = props.getString("serializer.encoding", "UTF8");
+        }
+    }
+
+    @Override
+    public byte[] toBytes(Object payload) {
+        if (payload == null) {
+            return null;
+        }
+        if (payload instanceof byte[]) {
+            return (byte[]) payload;
+        }
+        try {
+            return payload.toString().getBytes(encoding);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException("Unsupported encoding: " + encoding, e);
+        }
+    }
+}
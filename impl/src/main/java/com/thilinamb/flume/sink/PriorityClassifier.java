@@ -0,0 +1,41 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+
+/**
+ * A <code>MessagePreprocessor</code> may implement this interface to classify the events into
+ * the priority lanes of the sink. Urgent events are published ahead of the rest of the batch
+ * through a dedicated producer.
+ *
+ * If the preprocessor implements this interface, it takes precedence over the header based
+ * classification configured through "priority.header".
+ */
+public interface PriorityClassifier {
+
+    /**
+     * Classify an event.
+     * @param event Flume event received by the sink.
+     * @param context Flume context
+     * @return <code>true</code> if the event should be published through the urgent lane.
+     */
+    public boolean isUrgent(Event event, Context context);
+}
@@ -0,0 +1,127 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import kafka.javaapi.producer.Producer;
+import kafka.producer.ProducerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Keeps a single Kafka Producer per distinct set of producer properties, so that the sinks
+ * with identical "kafka.*" configurations within an agent can share the same producer
+ * and its broker connections, metadata and send buffers.
+ *
+ * Producers are reference counted. A producer is created when it's acquired for the first time
+ * and closed when the last sink using it releases it.
+ * Sharing is most effective with async producers("producer.type=async"), because a sync
+ * producer serializes the sends issued by the sinks sharing it.
+ */
+public class ProducerRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProducerRegistry.class);
+    private static final ProducerRegistry instance = new ProducerRegistry();
+
+    private final Map<Map<String, String>, SharedProducer> producers =
+            new HashMap<Map<String, String>, SharedProducer>();
+
+    private ProducerRegistry() {
+    }
+
+    public static ProducerRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get the producer for the given properties. A new producer is created if there is no
+     * producer created with the same set of properties.
+     * @param producerProps Kafka Producer properties
+     * @return shared producer
+     */
+    public synchronized Producer<String, Object> acquire(Properties producerProps) {
+        Map<String, String> key = toKey(producerProps);
+        SharedProducer sharedProducer = producers.get(key);
+        if (sharedProducer == null) {
+            Producer<String, Object> producer = new Producer<String, Object>(new ProducerConfig(producerProps));
+            sharedProducer = new SharedProducer(producer);
+            producers.put(key, sharedProducer);
+            logger.info("Created a shared Kafka Producer. Number of shared producers: " + producers.size());
+        }
+        sharedProducer.refCount++;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Acquired a shared Kafka Producer. Reference count: " + sharedProducer.refCount);
+        }
+        return sharedProducer.producer;
+    }
+
+    /**
+     * Release a producer acquired with the given properties. The producer is closed if
+     * it's not used by any other sink.
+     * @param producerProps Kafka Producer properties used to acquire the producer.
+     */
+    public void release(Properties producerProps) {
+        Map<String, String> key = toKey(producerProps);
+        SharedProducer closing = null;
+        int remaining;
+        synchronized (this) {
+            SharedProducer sharedProducer = producers.get(key);
+            if (sharedProducer == null) {
+                logger.warn("Releasing a Kafka Producer which is not acquired from the registry.");
+                return;
+            }
+            sharedProducer.refCount--;
+            if (sharedProducer.refCount == 0) {
+                producers.remove(key);
+                closing = sharedProducer;
+            }
+            remaining = producers.size();
+        }
+        // closing can block on the brokers, so it's done without holding up the other sinks.
+        if (closing != null) {
+            closing.producer.close();
+            logger.info("Closed a shared Kafka Producer. Number of shared producers: " + remaining);
+        }
+    }
+
+    synchronized int getReferenceCount(Properties producerProps) {
+        SharedProducer sharedProducer = producers.get(toKey(producerProps));
+        return sharedProducer == null ? 0 : sharedProducer.refCount;
+    }
+
+    private Map<String, String> toKey(Properties producerProps) {
+        Map<String, String> key = new HashMap<String, String>();
+        for (String name : producerProps.stringPropertyNames()) {
+            key.put(name, producerProps.getProperty(name));
+        }
+        return key;
+    }
+
+    private static class SharedProducer {
+        private final Producer<String, Object> producer;
+        private int refCount;
+
+        private SharedProducer(Producer<String, Object> producer) {
+            this.producer = producer;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import com.google.gson.JsonObject;
+import kafka.producer.KeyedMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Aggregates the events into tumbling windows, counting the events and the bytes of their bodies per
+ * group of dimension values. When a window closes, one summary message per group is produced, e.g.
+ * <code>{"window.start":1412345640000,"window.end":1412345700000,"host":"web1","Severity":"3",
+ * "count":42,"bytes":5120}</code>, keyed by the dimension values of the group.
+ *
+ * The groups are looked up by the 64 bit hash of their values in an open addressing table of primitive
+ * longs, with the counters in parallel arrays, so the memory used is fixed by the maximum number of
+ * groups and aggregating an event allocates nothing. Once the maximum is reached, the events of the
+ * new groups are aggregated into a single overflow group with the value "__overflow__".
+ *
+ * The windows are aligned to multiples of the window length, by the time the events are taken from
+ * the channel.
+ */
+public class RollupAggregator {
+
+    static final String OVERFLOW = "__overflow__";
+    private static final long NULL_HASH = 0x2545f4914f6cdd1dL;
+    // the summaries of at most this many windows are kept while they can't be published.
+    private static final int MAX_PENDING_WINDOWS = 10;
+
+    private final String topic;
+    private final String[] dimensions;
+    private final long windowMillis;
+    private final int maxGroups;
+    private final long[] slotHashes;
+    // index of the group in a slot plus one, 0 for an empty slot.
+    private final int[] slots;
+    private final int mask;
+    private final String[] values;
+    private final long[] counts;
+    private final long[] bytes;
+    private int groups;
+    private long overflowCount;
+    private long overflowBytes;
+    private long windowStart = -1;
+    // whether a window was closed since the summaries were last taken.
+    private boolean closed;
+    private final LinkedList<KeyedMessage<String, Object>> pending = new LinkedList<KeyedMessage<String, Object>>();
+
+    /**
+     * @param topic topic of the summary messages
+     * @param dimensions names of the dimensions grouping the events.
+     * @param windowMillis length of a window
+     * @param maxGroups maximum number of groups per window, excluding the overflow group.
+     */
+    public RollupAggregator(String topic, String[] dimensions, long windowMillis, int maxGroups) {
+        this.topic = topic;
+        this.dimensions = dimensions;
+        this.windowMillis = windowMillis;
+        this.maxGroups = maxGroups;
+        int tableSize = Integer.highestOneBit(Math.max(maxGroups, 1) * 2 - 1) << 1;
+        this.slotHashes = new long[tableSize];
+        this.slots = new int[tableSize];
+        this.mask = tableSize - 1;
+        this.values = new String[maxGroups * dimensions.length];
+        this.counts = new long[maxGroups];
+        this.bytes = new long[maxGroups];
+    }
+
+    public String[] getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Aggregate an event.
+     * @param groupValues values of the dimensions of the event, which may be reused by the caller.
+     * @param size size of the event body
+     * @param time time the event was taken from the channel
+     * @return <code>false</code> if the event was aggregated into the overflow group.
+     */
+    public synchronized boolean add(String[] groupValues, long size, long time) {
+        roll(time);
+        long hash = hash(groupValues);
+        int i = (int) (hash ^ (hash >>> 32)) & mask;
+        for (; slots[i] != 0; i = (i + 1) & mask) {
+            int group = slots[i] - 1;
+            if (slotHashes[i] == hash && matches(group, groupValues)) {
+                counts[group]++;
+                bytes[group] += size;
+                return true;
+            }
+        }
+        if (groups == maxGroups) {
+            overflowCount++;
+            overflowBytes += size;
+            return false;
+        }
+        int group = groups++;
+        System.arraycopy(groupValues, 0, values, group * dimensions.length, dimensions.length);
+        counts[group] = 1;
+        bytes[group] = size;
+        slotHashes[i] = hash;
+        slots[i] = group + 1;
+        return true;
+    }
+
+    /**
+     * Take the summaries waiting to be published once a window is closed. The summaries which failed to
+     * be published earlier are taken along with the ones of the next window.
+     * @param time current time, closing the window if it's over.
+     * @param closeWindow whether to close the current window even if it's not over, e.g. when stopping.
+     */
+    public synchronized List<KeyedMessage<String, Object>> drain(long time, boolean closeWindow) {
+        if (closeWindow) {
+            closeWindow();
+        } else {
+            roll(time);
+        }
+        if ((!closed && !closeWindow) || pending.isEmpty()) {
+            return Collections.emptyList();
+        }
+        closed = false;
+        List<KeyedMessage<String, Object>> summaries = new ArrayList<KeyedMessage<String, Object>>(pending);
+        pending.clear();
+        return summaries;
+    }
+
+    /**
+     * Return the summaries which failed to be published, to be published with the next ones.
+     * @return the number of summaries dropped, since too many are waiting.
+     */
+    public synchronized int requeue(List<KeyedMessage<String, Object>> summaries) {
+        pending.addAll(0, summaries);
+        int dropped = 0;
+        while (pending.size() > (maxGroups + 1) * MAX_PENDING_WINDOWS) {
+            pending.removeFirst();
+            dropped++;
+        }
+        return dropped;
+    }
+
+    private void roll(long time) {
+        if (windowStart >= 0 && time >= windowStart + windowMillis) {
+            closeWindow();
+        }
+        if (windowStart < 0) {
+            windowStart = time - time % windowMillis;
+        }
+    }
+
+    private void closeWindow() {
+        if (windowStart < 0) {
+            return;
+        }
+        long windowEnd = windowStart + windowMillis;
+        String[] groupValues = new String[dimensions.length];
+        for (int group = 0; group < groups; group++) {
+            System.arraycopy(values, group * dimensions.length, groupValues, 0, dimensions.length);
+            pending.add(summary(groupValues, counts[group], bytes[group], windowEnd));
+        }
+        if (overflowCount > 0) {
+            Arrays.fill(groupValues, OVERFLOW);
+            pending.add(summary(groupValues, overflowCount, overflowBytes, windowEnd));
+        }
+        Arrays.fill(slots, 0);
+        Arrays.fill(values, null);
+        groups = 0;
+        overflowCount = 0;
+        overflowBytes = 0;
+        windowStart = -1;
+        closed = true;
+    }
+
+    private KeyedMessage<String, Object> summary(String[] groupValues, long count, long size, long windowEnd) {
+        JsonObject summary = new JsonObject();
+        summary.addProperty("window.start", windowStart);
+        summary.addProperty("window.end", windowEnd);
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < dimensions.length; i++) {
+            summary.addProperty(dimensions[i], groupValues[i]);
+            if (i > 0) {
+                key.append('|');
+            }
+            key.append(groupValues[i]);
+        }
+        summary.addProperty("count", count);
+        summary.addProperty("bytes", size);
+        return new KeyedMessage<String, Object>(topic, key.toString(), summary.toString());
+    }
+
+    private boolean matches(int group, String[] groupValues) {
+        int offset = group * dimensions.length;
+        for (int i = 0; i < dimensions.length; i++) {
+            String value = values[offset + i];
+            if (value == null ? groupValues[i] != null : !value.equals(groupValues[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long hash(String[] groupValues) {
+        long hash = 17;
+        for (String value : groupValues) {
+            hash = hash * 31 + (value == null ? NULL_HASH : DedupCache.hash(value));
+        }
+        return hash;
+    }
+}
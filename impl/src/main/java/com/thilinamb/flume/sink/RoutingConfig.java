@@ -0,0 +1,85 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import org.apache.flume.Context;
+
+/**
+ * The settings deciding where and how the messages of a batch are published, which can be swapped
+ * while the sink is running without restarting the producers. A batch reads the current config once,
+ * so every message of a batch is published with the same config.
+ */
+class RoutingConfig {
+
+    private final long version;
+    private final Context context;
+    private final String topic;
+    private final MessagePreprocessor preprocessor;
+    private final boolean coalesce;
+    private final TopicRateLimiter rateLimiter;
+
+    /**
+     * @param version version of the config, incremented on each reload.
+     * @param context the Flume context passed to the preprocessor.
+     * @param topic static topic, used when there is no preprocessor.
+     * @param preprocessor preprocessor, or <code>null</code>.
+     * @param coalesce whether to coalesce the messages with the same topic and key within a batch.
+     * @param rateLimiter per topic rate limits, or <code>null</code>.
+     */
+    RoutingConfig(long version, Context context, String topic, MessagePreprocessor preprocessor,
+                  boolean coalesce, TopicRateLimiter rateLimiter) {
+        this.version = version;
+        this.context = context;
+        this.topic = topic;
+        this.preprocessor = preprocessor;
+        this.coalesce = coalesce;
+        this.rateLimiter = rateLimiter;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    Context getContext() {
+        return context;
+    }
+
+    String getTopic() {
+        return topic;
+    }
+
+    MessagePreprocessor getPreprocessor() {
+        return preprocessor;
+    }
+
+    /**
+     * @return the preprocessor if it classifies the events into the priority lanes, otherwise <code>null</code>.
+     */
+    PriorityClassifier getPriorityClassifier() {
+        return preprocessor instanceof PriorityClassifier ? (PriorityClassifier) preprocessor : null;
+    }
+
+    boolean isCoalesce() {
+        return coalesce;
+    }
+
+    TopicRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock free token bucket. Instead of counting the tokens, it keeps the theoretical arrival time
+ * of the next permit(Generic Cell Rate Algorithm), so its whole state fits into a single
+ * <code>AtomicLong</code> updated with compare-and-set.
+ */
+public class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = 1000L * 1000 * 1000;
+
+    // time between two permits at the steady rate.
+    private final long intervalNanos;
+    // how far the theoretical arrival time can be ahead of now, which allows bursts.
+    private final long toleranceNanos;
+    private final AtomicLong theoreticalArrivalTime;
+
+    /**
+     * @param permitsPerSecond steady rate
+     * @param burst maximum number of permits that can be acquired at once after being idle.
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst of a token bucket should be positive.");
+        }
+        intervalNanos = Math.max(1, (long) (NANOS_PER_SECOND / permitsPerSecond));
+        toleranceNanos = intervalNanos * (burst - 1);
+        theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Acquire a permit if it's available without waiting.
+     * @return <code>true</code> if a permit is acquired.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            long now = System.nanoTime();
+            long tat = theoreticalArrivalTime.get();
+            long base = tat - now > 0 ? tat : now;
+            if (base - now > toleranceNanos) {
+                return false;
+            }
+            if (theoreticalArrivalTime.compareAndSet(tat, base + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return nanoseconds to wait until the next permit is available. 0 if it's already available.
+     */
+    public long nanosUntilAvailable() {
+        return nanosUntilAvailable(1);
+    }
+
+    /**
+     * @return nanoseconds to wait until the given number of permits are available, without reserving them.
+     */
+    public long nanosUntilAvailable(int permits) {
+        long now = System.nanoTime();
+        long tat = theoreticalArrivalTime.get();
+        return waitFor(tat - now > 0 ? tat : now, permits, now);
+    }
+
+    /**
+     * @return <code>true</code> if the bucket is full, so waiting does not make any more permits available.
+     */
+    public boolean isFull() {
+        return theoreticalArrivalTime.get() - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Reserve a number of permits, which can be more than the burst. The permits are taken right away,
+     * and the caller waits for the returned time before using them.
+     * @return nanoseconds to wait until the last of the permits is available. 0 if they are all available.
+     */
+    public long reserve(int permits) {
+        while (true) {
+            long now = System.nanoTime();
+            long tat = theoreticalArrivalTime.get();
+            long base = tat - now > 0 ? tat : now;
+            if (theoreticalArrivalTime.compareAndSet(tat, base + intervalNanos * permits)) {
+                return waitFor(base, permits, now);
+            }
+        }
+    }
+
+    private long waitFor(long base, int permits, long now) {
+        long wait = base + intervalNanos * (permits - 1) - now - toleranceNanos;
+        return wait > 0 ? wait : 0;
+    }
+}
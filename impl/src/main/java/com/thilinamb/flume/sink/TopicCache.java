@@ -0,0 +1,217 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import kafka.common.ErrorMapping;
+import kafka.javaapi.PartitionMetadata;
+import kafka.javaapi.TopicMetadata;
+import kafka.javaapi.TopicMetadataResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded cache of the topics known to exist, for the topics extracted from the events by a
+ * preprocessor. Looking up a topic never blocks. A topic seen for the first time is published to the
+ * overflow topic, while its metadata is requested in the background, which creates the topic if the
+ * brokers auto create topics. Once it has a leader for each partition, the topic is published to
+ * directly. The metadata requests are rate limited, so that a burst of new topics does not flood
+ * the brokers with topic creations, and the topics which could not be resolved are retried only
+ * after a while.
+ */
+class TopicCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(TopicCache.class);
+    // a newly created topic takes a moment to elect its leaders.
+    private static final long LEADER_RETRY_MS = 500;
+    private static final int LEADER_MAX_RETRIES = 10;
+
+    private final List<KafkaCluster> clusters;
+    private final String overflowTopic;
+    private final long retryMillis;
+    private final int timeoutMs;
+    private final TokenBucket creationLimit;
+    private final KafkaSinkCounter counter;
+    // topics known to exist, in the access order to evict the least recently used.
+    private final Map<String, Boolean> known;
+    // topics which could not be resolved, with the time they can be retried at.
+    private final Map<String, Long> unknown;
+    private final Set<String> resolving = new HashSet<String>();
+    private ScheduledExecutorService resolver;
+
+    /**
+     * @param clusters clusters to request the metadata from, in the order of preference.
+     * @param capacity maximum number of topics remembered, both known and unknown.
+     * @param overflowTopic topic to publish to while a topic is not known to exist.
+     * @param retryMillis time before a topic which could not be resolved is requested again.
+     * @param creationRate maximum number of metadata requests per second for new topics.
+     * @param creationBurst maximum number of metadata requests at once after being idle.
+     * @param timeoutMs socket timeout of the metadata requests.
+     * @param counter counter to report the hits, the overflows and the throttled requests.
+     */
+    TopicCache(List<KafkaCluster> clusters, final int capacity, String overflowTopic, long retryMillis,
+               double creationRate, int creationBurst, int timeoutMs, KafkaSinkCounter counter) {
+        this.clusters = clusters;
+        this.overflowTopic = overflowTopic;
+        this.retryMillis = retryMillis;
+        this.timeoutMs = timeoutMs;
+        this.creationLimit = new TokenBucket(creationRate, creationBurst);
+        this.counter = counter;
+        this.known = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.unknown = new LinkedHashMap<String, Long>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public void start(String sinkName) {
+        resolver = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat(sinkName + "-topic-resolver").setDaemon(true).build());
+    }
+
+    public void stop() {
+        if (resolver != null) {
+            resolver.shutdownNow();
+            resolver = null;
+        }
+    }
+
+    /**
+     * @return the topic if it's known to exist, the overflow topic otherwise.
+     */
+    public String resolve(String topic) {
+        if (topic.equals(overflowTopic)) {
+            return topic;
+        }
+        synchronized (this) {
+            if (known.get(topic) != null) {
+                counter.incrementTopicCacheHitCount();
+                return topic;
+            }
+            if (!resolving.contains(topic)) {
+                Long retryTime = unknown.get(topic);
+                if (retryTime == null || retryTime <= System.currentTimeMillis()) {
+                    if (creationLimit.tryAcquire()) {
+                        resolving.add(topic);
+                        schedule(topic, 0, 0);
+                    } else {
+                        counter.incrementTopicCreationThrottledCount();
+                    }
+                }
+            }
+        }
+        counter.incrementTopicCacheOverflowCount();
+        return overflowTopic;
+    }
+
+    /**
+     * @return <code>true</code> if the topic is known to exist.
+     */
+    public synchronized boolean isKnown(String topic) {
+        return known.containsKey(topic);
+    }
+
+    /**
+     * @return <code>true</code> if the metadata of the topic is being requested.
+     */
+    synchronized boolean isResolving(String topic) {
+        return resolving.contains(topic);
+    }
+
+    private void schedule(final String topic, final int attempt, long delayMillis) {
+        ScheduledExecutorService resolver = this.resolver;
+        if (resolver == null) {
+            resolving.remove(topic);
+            return;
+        }
+        resolver.schedule(new Runnable() {
+            @Override
+            public void run() {
+                resolveMetadata(topic, attempt);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void resolveMetadata(String topic, int attempt) {
+        short errorCode = requestMetadata(topic);
+        synchronized (this) {
+            if (errorCode == ErrorMapping.NoError()) {
+                resolving.remove(topic);
+                unknown.remove(topic);
+                known.put(topic, Boolean.TRUE);
+                counter.setTopicCacheSize(known.size());
+                logger.info("Topic " + topic + " is available. Publishing to it directly.");
+            } else if (errorCode == ErrorMapping.LeaderNotAvailableCode() && attempt < LEADER_MAX_RETRIES) {
+                schedule(topic, attempt + 1, LEADER_RETRY_MS);
+            } else {
+                resolving.remove(topic);
+                unknown.put(topic, System.currentTimeMillis() + retryMillis);
+                logger.warn("Topic " + topic + " is not available(error code " + errorCode + "). Publishing " +
+                        "its events to the topic " + overflowTopic + " for the next " + retryMillis + " ms.");
+            }
+        }
+    }
+
+    /**
+     * Request the metadata of a topic from the first cluster which responds.
+     * @return error code of the topic, which is also an error if a partition has no leader.
+     */
+    private short requestMetadata(String topic) {
+        for (KafkaCluster cluster : clusters) {
+            TopicMetadataResponse response = cluster.requestMetadata(Collections.singletonList(topic), timeoutMs);
+            if (response == null) {
+                continue;
+            }
+            for (TopicMetadata metadata : response.topicsMetadata()) {
+                if (!topic.equals(metadata.topic())) {
+                    continue;
+                }
+                if (metadata.errorCode() != ErrorMapping.NoError()) {
+                    return metadata.errorCode();
+                }
+                for (PartitionMetadata partition : metadata.partitionsMetadata()) {
+                    if (partition.leader() == null) {
+                        return ErrorMapping.LeaderNotAvailableCode();
+                    }
+                }
+                return metadata.partitionsMetadata().isEmpty() ?
+                        ErrorMapping.LeaderNotAvailableCode() : ErrorMapping.NoError();
+            }
+            return ErrorMapping.UnknownTopicOrPartitionCode();
+        }
+        return ErrorMapping.BrokerNotAvailableCode();
+    }
+}
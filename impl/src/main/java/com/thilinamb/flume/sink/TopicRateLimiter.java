@@ -0,0 +1,94 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps a <code>TokenBucket</code> per topic, so that a single topic cannot take up all the
+ * send capacity of the sink. Topics can have their own rates, while the rest share the
+ * same default rate, but with separate buckets. As those topics come from the events, their
+ * buckets are kept in a bounded LRU map; the buckets of the topics with their own rates are
+ * created up front and never evicted.
+ */
+public class TopicRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(TopicRateLimiter.class);
+
+    private final double defaultRate;
+    private final double burstSeconds;
+    private final Map<String, TokenBucket> topicBuckets = new HashMap<String, TokenBucket>();
+    private final Map<String, TokenBucket> defaultBuckets;
+
+    /**
+     * @param defaultRate messages per second allowed for a topic without a specific rate. 0 for unlimited.
+     * @param topicRates messages per second allowed for specific topics. 0 for unlimited.
+     * @param burstSeconds size of a bucket, as the number of seconds worth of messages at its rate.
+     * @param capacity maximum number of topics at the default rate to keep the buckets of.
+     */
+    public TopicRateLimiter(double defaultRate, Map<String, Double> topicRates, double burstSeconds,
+                            final int capacity) {
+        this.defaultRate = defaultRate;
+        this.burstSeconds = burstSeconds;
+        for (Map.Entry<String, Double> entry : topicRates.entrySet()) {
+            // a topic with a rate of 0 is not limited, even if there's a default rate.
+            topicBuckets.put(entry.getKey(), entry.getValue() > 0 ? createBucket(entry.getValue()) : null);
+        }
+        this.defaultBuckets = new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param topic Kafka topic
+     * @return bucket of the topic or <code>null</code> if the topic is not rate limited.
+     */
+    public TokenBucket getBucket(String topic) {
+        if (topicBuckets.containsKey(topic)) {
+            return topicBuckets.get(topic);
+        }
+        if (defaultRate <= 0) {
+            return null;
+        }
+        synchronized (defaultBuckets) {
+            TokenBucket bucket = defaultBuckets.get(topic);
+            if (bucket == null) {
+                bucket = createBucket(defaultRate);
+                defaultBuckets.put(topic, bucket);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Rate limiting the topic " + topic + " to " + defaultRate + " messages per second.");
+                }
+            }
+            return bucket;
+        }
+    }
+
+    private TokenBucket createBucket(double rate) {
+        int burst = (int) Math.max(1, Math.round(rate * burstSeconds));
+        return new TokenBucket(rate, burst);
+    }
+}
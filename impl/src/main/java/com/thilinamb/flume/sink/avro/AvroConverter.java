@@ -0,0 +1,127 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.avro;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.io.JsonDecoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Converts JSON messages into Avro binary using the schema of the topic they are published to.
+ *
+ * The JSON message is expected to be in the JSON encoding of Avro. The encoders, decoders,
+ * output buffers and the decoded records are reused per thread, so a conversion
+ * allocates only the resulting byte array once the thread has seen the schema.
+ */
+public class AvroConverter {
+
+    private final SchemaRegistry schemaRegistry;
+    private final ThreadLocal<ConverterState> state = new ThreadLocal<ConverterState>() {
+        @Override
+        protected ConverterState initialValue() {
+            return new ConverterState();
+        }
+    };
+
+    public AvroConverter(SchemaRegistry schemaRegistry) {
+        this.schemaRegistry = schemaRegistry;
+    }
+
+    /**
+     * Convert a message into Avro binary.
+     * @param topic Topic the message will be published to. Used to select the schema.
+     * @param message JSON message
+     * @return Avro binary encoded message, or the message itself if the topic does not have a schema.
+     * @throws IOException if the message is not valid JSON or does not conform to the schema of the topic,
+     * or the topic is rejected by the schema registry. Other errors looking up the schema are thrown by the
+     * schema registry as they are.
+     */
+    public Object convert(String topic, String message) throws IOException {
+        Schema schema;
+        try {
+            schema = schemaRegistry.getSchema(topic);
+        } catch (IllegalArgumentException e) {
+            // the topic may come from the event, so it's rejected along with the event.
+            throw new IOException("No schema for the topic: " + e.getMessage(), e);
+        }
+        if (schema == null || message == null) {
+            return message;
+        }
+        ConverterState converterState = state.get();
+        SchemaCodec codec = converterState.getCodec(schema);
+        // a record partly decoded from an invalid message is not reused.
+        Object datum = codec.datum;
+        codec.datum = null;
+        try {
+            codec.decoder.configure(message);
+            codec.datum = codec.reader.read(datum, codec.decoder);
+        } catch (AvroRuntimeException e) {
+            throw new IOException("Message does not conform to the schema " + schema.getFullName(), e);
+        }
+
+        converterState.out.reset();
+        converterState.encoder = EncoderFactory.get().binaryEncoder(converterState.out, converterState.encoder);
+        codec.writer.write(codec.datum, converterState.encoder);
+        converterState.encoder.flush();
+        return converterState.out.toByteArray();
+    }
+
+    /**
+     * Reader, writer and decoder for a single schema. These are not thread safe, hence
+     * kept per thread.
+     */
+    private static class SchemaCodec {
+        private final GenericDatumReader<Object> reader;
+        private final GenericDatumWriter<Object> writer;
+        private final JsonDecoder decoder;
+        private Object datum;
+
+        private SchemaCodec(Schema schema) throws IOException {
+            reader = new GenericDatumReader<Object>(schema);
+            writer = new GenericDatumWriter<Object>(schema);
+            decoder = DecoderFactory.get().jsonDecoder(schema, "");
+        }
+    }
+
+    private static class ConverterState {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        // schemas are cached by the registry, so the same instance is returned for a topic.
+        private final Map<Schema, SchemaCodec> codecs = new IdentityHashMap<Schema, SchemaCodec>();
+        private BinaryEncoder encoder;
+
+        private SchemaCodec getCodec(Schema schema) throws IOException {
+            SchemaCodec codec = codecs.get(schema);
+            if (codec == null) {
+                codec = new SchemaCodec(schema);
+                codecs.put(schema, codec);
+            }
+            return codec;
+        }
+    }
+}
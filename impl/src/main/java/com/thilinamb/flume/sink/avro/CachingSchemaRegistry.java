@@ -0,0 +1,71 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.avro;
+
+import org.apache.avro.Schema;
+import org.apache.flume.Context;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the schemas resolved through another <code>SchemaRegistry</code> in memory,
+ * so that the underlying registry is consulted only once per topic.
+ * Topics without a schema are remembered as well.
+ */
+public class CachingSchemaRegistry implements SchemaRegistry {
+
+    // placeholder for the topics without a schema, since the map cannot hold null values.
+    private static final Schema NO_SCHEMA = Schema.create(Schema.Type.NULL);
+
+    private final SchemaRegistry registry;
+    private final ConcurrentMap<String, Schema> schemaCache = new ConcurrentHashMap<String, Schema>();
+
+    public CachingSchemaRegistry(SchemaRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void configure(Context context) {
+        registry.configure(context);
+    }
+
+    @Override
+    public Schema getSchema(String topic) {
+        Schema schema = schemaCache.get(topic);
+        if (schema == null) {
+            schema = registry.getSchema(topic);
+            if (schema == null) {
+                schema = NO_SCHEMA;
+            }
+            Schema existing = schemaCache.putIfAbsent(topic, schema);
+            if (existing != null) {
+                schema = existing;
+            }
+        }
+        return schema == NO_SCHEMA ? null : schema;
+    }
+
+    /**
+     * Drop the cached schemas, so they are loaded again from the underlying registry.
+     */
+    public void clear() {
+        schemaCache.clear();
+    }
+}
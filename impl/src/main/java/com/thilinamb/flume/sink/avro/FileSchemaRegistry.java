@@ -0,0 +1,126 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaParseException;
+import org.apache.flume.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * A <code>SchemaRegistry</code> which loads the schemas from the local file system.
+ * The schema for a topic is read from the file "${schema.dir}/${topic}.avsc".
+ * If there is no such file, the schema set through the property "schema.default"
+ * is used if it's provided. Since the topic may be derived from the events, topics which are not
+ * valid Kafka topic names are rejected, so that a topic cannot point outside of the directory.
+ */
+public class FileSchemaRegistry implements SchemaRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileSchemaRegistry.class);
+    private static final String SCHEMA_FILE_EXTENSION = ".avsc";
+    // legal characters and maximum length of a Kafka topic name.
+    private static final Pattern TOPIC_PATTERN = Pattern.compile("[a-zA-Z0-9._-]{1,255}");
+
+    private File schemaDir;
+    private File defaultSchemaFile;
+
+    @Override
+    public void configure(Context context) {
+        String schemaDirPath = context.getString(AvroConstants.SCHEMA_DIR);
+        String defaultSchemaPath = context.getString(AvroConstants.SCHEMA_DEFAULT);
+        if (schemaDirPath == null && defaultSchemaPath == null) {
+            String errorMsg = "Either 'avro." + AvroConstants.SCHEMA_DIR + "' or 'avro." +
+                    AvroConstants.SCHEMA_DEFAULT + "' should be set when using the FileSchemaRegistry.";
+            logger.error(errorMsg);
+            throw new IllegalArgumentException(errorMsg);
+        }
+        if (schemaDirPath != null) {
+            schemaDir = new File(schemaDirPath.trim());
+            if (!schemaDir.isDirectory()) {
+                String errorMsg = "Avro schema directory does not exist: " + schemaDir.getAbsolutePath();
+                logger.error(errorMsg);
+                throw new IllegalArgumentException(errorMsg);
+            }
+        }
+        if (defaultSchemaPath != null) {
+            defaultSchemaFile = new File(defaultSchemaPath.trim());
+            validate(defaultSchemaFile);
+        }
+        // a broken schema file fails the configuration rather than the batches published to its topic.
+        if (schemaDir != null) {
+            File[] schemaFiles = schemaDir.listFiles();
+            if (schemaFiles != null) {
+                for (File schemaFile : schemaFiles) {
+                    if (schemaFile.isFile() && schemaFile.getName().endsWith(SCHEMA_FILE_EXTENSION)) {
+                        validate(schemaFile);
+                    }
+                }
+            }
+        }
+    }
+
+    private void validate(File schemaFile) {
+        try {
+            new Schema.Parser().parse(schemaFile);
+        } catch (IOException e) {
+            String errorMsg = "Error reading the Avro schema file: " + schemaFile.getAbsolutePath();
+            logger.error(errorMsg, e);
+            throw new IllegalArgumentException(errorMsg, e);
+        } catch (SchemaParseException e) {
+            String errorMsg = "Invalid Avro schema file: " + schemaFile.getAbsolutePath();
+            logger.error(errorMsg, e);
+            throw new IllegalArgumentException(errorMsg, e);
+        }
+    }
+
+    @Override
+    public Schema getSchema(String topic) {
+        if (topic == null || !TOPIC_PATTERN.matcher(topic).matches() || ".".equals(topic) || "..".equals(topic)) {
+            throw new IllegalArgumentException("Invalid topic name: " + topic);
+        }
+        File schemaFile = null;
+        if (schemaDir != null) {
+            File topicSchemaFile = new File(schemaDir, topic + SCHEMA_FILE_EXTENSION);
+            if (topicSchemaFile.isFile()) {
+                schemaFile = topicSchemaFile;
+            }
+        }
+        if (schemaFile == null) {
+            schemaFile = defaultSchemaFile;
+        }
+        if (schemaFile == null) {
+            return null;
+        }
+        try {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Loading the Avro schema for the topic " + topic + " from " + schemaFile);
+            }
+            return new Schema.Parser().parse(schemaFile);
+        } catch (IOException e) {
+            String errorMsg = "Error reading the Avro schema file: " + schemaFile.getAbsolutePath();
+            logger.error(errorMsg, e);
+            throw new IllegalStateException(errorMsg, e);
+        }
+    }
+}
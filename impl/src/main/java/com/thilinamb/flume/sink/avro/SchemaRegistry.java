@@ -0,0 +1,48 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.avro;
+
+import org.apache.avro.Schema;
+import org.apache.flume.conf.Configurable;
+
+/**
+ * Provides the Avro schema used to encode the messages published to a given topic.
+ *
+ * This is the extension point for plugging in a schema registry. The sink wraps
+ * the configured implementation with a {@link CachingSchemaRegistry}, so an
+ * implementation does not need to cache the schemas by itself. For instance,
+ * a client for a remote schema registry or a local stand-in of it can be used
+ * by implementing this interface.
+ *
+ * Implementations are instantiated through reflection, hence should keep the
+ * default constructor. Any sink property with the prefix "avro." is passed into
+ * <code>configure</code> with the prefix removed.
+ */
+public interface SchemaRegistry extends Configurable {
+
+    /**
+     * Lookup the schema for a topic.
+     * @param topic Kafka topic the message is published to.
+     * @return Schema of the messages published to the topic or <code>null</code>
+     * if the messages of the topic should not be converted.
+     * @throws IllegalArgumentException if the topic is not acceptable, in which case the event is dropped
+     * and counted as a conversion failure.
+     */
+    public Schema getSchema(String topic);
+}
@@ -0,0 +1,38 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.syslog;
+
+public class SyslogConstants {
+
+    public static final String PROPERTY_PREFIX = "syslog.";
+
+    /* Properties */
+    public static final String TOPIC_TEMPLATE = "topic.template";
+    public static final String KEY_TEMPLATE = "key.template";
+    public static final String MISSING = "missing";
+
+    /* Defaults */
+    public static final String DEFAULT_KEY_TEMPLATE = "%{host}";
+    public static final String DEFAULT_MISSING = "unknown";
+
+    /* Headers set by the Flume syslog sources */
+    public static final String FACILITY_HEADER = "Facility";
+    public static final String SEVERITY_HEADER = "Severity";
+    public static final String HOST_HEADER = "host";
+}
@@ -0,0 +1,378 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.syslog;
+
+import java.util.Map;
+
+/**
+ * The fields of a syslog message, parsed in a single pass over the raw bytes of the message. Both
+ * RFC 5424 and RFC 3164 messages are recognized. The text fields are kept as offsets into the body,
+ * so parsing allocates nothing and an instance can be reused for the next message.
+ *
+ * The Flume syslog sources move the priority, the timestamp and the hostname into the event headers
+ * unless "keepFields" is set. A body without a priority is parsed from the tag onwards, and the
+ * facility, the severity and the host are taken from the headers instead.
+ */
+public class SyslogMessage {
+
+    private static final String[] FACILITIES = {"kern", "user", "mail", "daemon", "auth", "syslog", "lpr",
+            "news", "uucp", "cron", "authpriv", "ftp", "ntp", "audit", "alert", "clock", "local0", "local1",
+            "local2", "local3", "local4", "local5", "local6", "local7"};
+    private static final String[] SEVERITIES = {"emerg", "alert", "crit", "err", "warning", "notice", "info",
+            "debug"};
+    private static final int MAX_PRIORITY = 191;
+
+    private byte[] body;
+    private int priority;
+    private int version;
+    private String hostHeader;
+    private int hostStart;
+    private int hostEnd;
+    private int appStart;
+    private int appEnd;
+    private int procIdStart;
+    private int procIdEnd;
+    private int msgIdStart;
+    private int msgIdEnd;
+    private int messageStart;
+
+    /**
+     * Parse a message, replacing the fields of the previous one.
+     * @param body raw bytes of the message
+     * @param headers headers of the Flume event, consulted for the fields missing in the body.
+     */
+    public void parse(byte[] body, Map<String, String> headers) {
+        this.body = body;
+        priority = -1;
+        version = 0;
+        hostHeader = null;
+        hostStart = hostEnd = 0;
+        appStart = appEnd = 0;
+        procIdStart = procIdEnd = 0;
+        msgIdStart = msgIdEnd = 0;
+
+        int end = body.length;
+        int pos = parsePriority(body, end);
+        if (priority < 0) {
+            priority = headerPriority(headers);
+            hostHeader = headers.get(SyslogConstants.HOST_HEADER);
+            messageStart = parseTag(pos, end);
+            return;
+        }
+        // RFC 5424 messages have a version after the priority, RFC 3164 messages a timestamp.
+        int digits = pos;
+        int value = 0;
+        while (digits < end && digits - pos < 3 && isDigit(body[digits])) {
+            value = value * 10 + (body[digits] - '0');
+            digits++;
+        }
+        if (digits > pos && digits < end && body[digits] == ' ') {
+            version = value;
+            parseStructured(digits + 1, end);
+        } else {
+            parseBsd(pos, end, headers);
+        }
+    }
+
+    private int parsePriority(byte[] body, int end) {
+        if (end == 0 || body[0] != '<') {
+            return 0;
+        }
+        int pos = 1;
+        int value = 0;
+        while (pos < end && pos < 5 && isDigit(body[pos])) {
+            value = value * 10 + (body[pos] - '0');
+            pos++;
+        }
+        if (pos == 1 || pos >= end || body[pos] != '>' || value > MAX_PRIORITY) {
+            return 0;
+        }
+        priority = value;
+        return pos + 1;
+    }
+
+    private static int headerPriority(Map<String, String> headers) {
+        String facility = headers.get(SyslogConstants.FACILITY_HEADER);
+        String severity = headers.get(SyslogConstants.SEVERITY_HEADER);
+        if (facility == null || severity == null) {
+            return -1;
+        }
+        try {
+            int value = Integer.parseInt(facility) * 8 + Integer.parseInt(severity);
+            return value >= 0 && value <= MAX_PRIORITY ? value : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * VERSION SP TIMESTAMP SP HOSTNAME SP APP-NAME SP PROCID SP MSGID SP STRUCTURED-DATA [SP MSG]
+     */
+    private void parseStructured(int pos, int end) {
+        // timestamp
+        pos = skip(tokenEnd(pos, end), end);
+        int tokenEnd = tokenEnd(pos, end);
+        if (!isNil(pos, tokenEnd)) {
+            hostStart = pos;
+            hostEnd = tokenEnd;
+        }
+        pos = skip(tokenEnd, end);
+        tokenEnd = tokenEnd(pos, end);
+        if (!isNil(pos, tokenEnd)) {
+            appStart = pos;
+            appEnd = tokenEnd;
+        }
+        pos = skip(tokenEnd, end);
+        tokenEnd = tokenEnd(pos, end);
+        if (!isNil(pos, tokenEnd)) {
+            procIdStart = pos;
+            procIdEnd = tokenEnd;
+        }
+        pos = skip(tokenEnd, end);
+        tokenEnd = tokenEnd(pos, end);
+        if (!isNil(pos, tokenEnd)) {
+            msgIdStart = pos;
+            msgIdEnd = tokenEnd;
+        }
+        pos = skip(tokenEnd, end);
+        // structured data is either the nil value or a sequence of bracketed elements.
+        if (pos < end && body[pos] == '[') {
+            while (pos < end && body[pos] == '[') {
+                pos++;
+                while (pos < end && body[pos] != ']') {
+                    // the values may contain escaped closing brackets.
+                    pos += body[pos] == '\\' ? 2 : 1;
+                }
+                pos++;
+            }
+        } else {
+            pos = tokenEnd(pos, end);
+        }
+        messageStart = Math.min(skip(pos, end), end);
+    }
+
+    /**
+     * TIMESTAMP SP HOSTNAME SP TAG[PID]: MSG
+     */
+    private void parseBsd(int pos, int end, Map<String, String> headers) {
+        if (isBsdTimestamp(pos, end)) {
+            pos += 16;
+        } else if (pos < end && isDigit(body[pos])) {
+            // some daemons send an ISO 8601 timestamp instead.
+            pos = skip(tokenEnd(pos, end), end);
+        }
+        // the hostname is optional, in which case the tag follows the timestamp.
+        int tokenEnd = tokenEnd(pos, end);
+        if (isTag(pos, tokenEnd)) {
+            hostHeader = headers.get(SyslogConstants.HOST_HEADER);
+        } else {
+            hostStart = pos;
+            hostEnd = tokenEnd;
+            pos = skip(tokenEnd, end);
+        }
+        messageStart = parseTag(pos, end);
+    }
+
+    private int parseTag(int pos, int end) {
+        int tagEnd = pos;
+        while (tagEnd < end && body[tagEnd] != '[' && body[tagEnd] != ':' && body[tagEnd] != ' ') {
+            tagEnd++;
+        }
+        if (tagEnd > pos) {
+            appStart = pos;
+            appEnd = tagEnd;
+        }
+        pos = tagEnd;
+        if (pos < end && body[pos] == '[') {
+            int pidEnd = pos + 1;
+            while (pidEnd < end && body[pidEnd] != ']' && body[pidEnd] != ' ') {
+                pidEnd++;
+            }
+            if (pidEnd < end && body[pidEnd] == ']') {
+                procIdStart = pos + 1;
+                procIdEnd = pidEnd;
+                pos = pidEnd + 1;
+            }
+        }
+        if (pos < end && body[pos] == ':') {
+            pos++;
+        }
+        return skip(pos, end);
+    }
+
+    private boolean isBsdTimestamp(int pos, int end) {
+        // "Mmm dd hh:mm:ss "
+        return end - pos >= 16 && isLetter(body[pos]) && isLetter(body[pos + 1]) && isLetter(body[pos + 2])
+                && body[pos + 3] == ' ' && body[pos + 6] == ' ' && body[pos + 9] == ':' && body[pos + 12] == ':'
+                && body[pos + 15] == ' ';
+    }
+
+    private boolean isTag(int start, int end) {
+        if (end > start && body[end - 1] == ':') {
+            return true;
+        }
+        for (int i = start; i < end; i++) {
+            if (body[i] == '[') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isNil(int start, int end) {
+        return end == start || (end - start == 1 && body[start] == '-');
+    }
+
+    private int tokenEnd(int pos, int end) {
+        while (pos < end && body[pos] != ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skip(int pos, int end) {
+        return pos < end ? pos + 1 : end;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isLetter(byte b) {
+        return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z');
+    }
+
+    /**
+     * Drop the references to the last message, so that its body can be garbage collected.
+     */
+    void clear() {
+        body = null;
+        hostHeader = null;
+    }
+
+    byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return the priority, or -1 if the message has none.
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the facility, or -1 if the message has no priority.
+     */
+    public int getFacility() {
+        return priority < 0 ? -1 : priority >> 3;
+    }
+
+    /**
+     * @return the severity, or -1 if the message has no priority.
+     */
+    public int getSeverity() {
+        return priority < 0 ? -1 : priority & 7;
+    }
+
+    /**
+     * @return the keyword of the facility, e.g. "local0", or <code>null</code>.
+     */
+    public String getFacilityName() {
+        return priority < 0 ? null : FACILITIES[priority >> 3];
+    }
+
+    /**
+     * @return the keyword of the severity, e.g. "err", or <code>null</code>.
+     */
+    public String getSeverityName() {
+        return priority < 0 ? null : SEVERITIES[priority & 7];
+    }
+
+    /**
+     * @return the version of a RFC 5424 message, 0 for a RFC 3164 message.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the host from the event headers if the body has no hostname, otherwise <code>null</code>.
+     */
+    String getHostHeader() {
+        return hostHeader;
+    }
+
+    int getHostStart() {
+        return hostStart;
+    }
+
+    int getHostEnd() {
+        return hostEnd;
+    }
+
+    int getAppStart() {
+        return appStart;
+    }
+
+    int getAppEnd() {
+        return appEnd;
+    }
+
+    int getProcIdStart() {
+        return procIdStart;
+    }
+
+    int getProcIdEnd() {
+        return procIdEnd;
+    }
+
+    int getMsgIdStart() {
+        return msgIdStart;
+    }
+
+    int getMsgIdEnd() {
+        return msgIdEnd;
+    }
+
+    /**
+     * @return offset of the free form message within the body.
+     */
+    public int getMessageStart() {
+        return messageStart;
+    }
+
+    /* Convenience accessors, which allocate a string. */
+
+    public String getHost() {
+        return hostEnd > hostStart ? new String(body, hostStart, hostEnd - hostStart) : hostHeader;
+    }
+
+    public String getAppName() {
+        return appEnd > appStart ? new String(body, appStart, appEnd - appStart) : null;
+    }
+
+    public String getProcId() {
+        return procIdEnd > procIdStart ? new String(body, procIdStart, procIdEnd - procIdStart) : null;
+    }
+
+    public String getMsgId() {
+        return msgIdEnd > msgIdStart ? new String(body, msgIdStart, msgIdEnd - msgIdStart) : null;
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.syslog;
+
+import com.thilinamb.flume.sink.Constants;
+import com.thilinamb.flume.sink.MessagePreprocessor;
+import com.thilinamb.flume.sink.PriorityClassifier;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+
+/**
+ * A built-in preprocessor for syslog events, which renders the topic and the key from templates over
+ * the fields of the syslog message. E.g. with "syslog.topic.template" set to "syslog-%{facility}" and
+ * "syslog.key.template" set to "%{host}", the messages are published to a topic per facility and
+ * partitioned by host. See <code>SyslogTemplate</code> for the fields.
+ *
+ * If "syslog.topic.template" is not set, the messages are published to the topic given by "topic".
+ * The key template defaults to "%{host}". The missing fields are rendered as "unknown", which can be
+ * changed with "syslog.missing".
+ *
+ * The body of each event is scanned once, without regular expressions or intermediate strings. The
+ * events with a severity up to "priority.threshold" are classified as urgent, so that emergencies,
+ * alerts and critical conditions are published through the urgent lane if it's enabled.
+ */
+public class SyslogPreprocessor implements MessagePreprocessor, PriorityClassifier {
+
+    private final ThreadLocal<State> state = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+    private volatile SyslogTemplate topicTemplate;
+    private volatile SyslogTemplate keyTemplate;
+
+    @Override
+    public String extractKey(Event event, Context context) {
+        String pattern = context.getString(SyslogConstants.PROPERTY_PREFIX + SyslogConstants.KEY_TEMPLATE,
+                SyslogConstants.DEFAULT_KEY_TEMPLATE);
+        SyslogTemplate template = keyTemplate;
+        if (template == null || !template.getPattern().equals(pattern)) {
+            template = SyslogTemplate.compile(pattern, false);
+            keyTemplate = template;
+        }
+        State current = state.get();
+        try {
+            return template.render(parse(current, event), missing(context), current.keyOutput);
+        } finally {
+            // the key is the last to be extracted for an event.
+            release(current);
+        }
+    }
+
+    @Override
+    public String extractTopic(Event event, Context context) {
+        String pattern = context.getString(SyslogConstants.PROPERTY_PREFIX + SyslogConstants.TOPIC_TEMPLATE);
+        if (pattern == null) {
+            return context.getString(Constants.TOPIC, Constants.DEFAULT_TOPIC);
+        }
+        SyslogTemplate template = topicTemplate;
+        if (template == null || !template.getPattern().equals(pattern)) {
+            template = SyslogTemplate.compile(pattern, true);
+            topicTemplate = template;
+        }
+        State current = state.get();
+        return template.render(parse(current, event), missing(context), current.topicOutput);
+    }
+
+    @Override
+    public String transformMessage(Event event, Context context) {
+        // the first to be called for an event, so the previous event is not kept alive meanwhile.
+        release(state.get());
+        return new String(event.getBody());
+    }
+
+    @Override
+    public boolean isUrgent(Event event, Context context) {
+        State current = state.get();
+        int severity = parse(current, event).getSeverity();
+        release(current);
+        return severity >= 0 && severity <= context.getInteger(Constants.PRIORITY_THRESHOLD,
+                Constants.DEFAULT_PRIORITY_THRESHOLD);
+    }
+
+    /**
+     * The sink asks for the topic and the key of an event one after the other, so the parsed message
+     * is reused while the same event is processed. The cache is keyed on the event rather than its body,
+     * since events may share a body with different headers.
+     */
+    private static SyslogMessage parse(State current, Event event) {
+        if (current.event != event) {
+            current.message.parse(event.getBody(), event.getHeaders());
+            current.event = event;
+        }
+        return current.message;
+    }
+
+    /**
+     * Drop the parsed message, so that the thread does not keep the last event alive.
+     */
+    private static void release(State current) {
+        if (current.event != null) {
+            current.event = null;
+            current.message.clear();
+        }
+    }
+
+    private static String missing(Context context) {
+        return context.getString(SyslogConstants.PROPERTY_PREFIX + SyslogConstants.MISSING,
+                SyslogConstants.DEFAULT_MISSING);
+    }
+
+    private static class State {
+        private final SyslogMessage message = new SyslogMessage();
+        private Event event;
+        private final SyslogTemplate.Output topicOutput = new SyslogTemplate.Output();
+        private final SyslogTemplate.Output keyOutput = new SyslogTemplate.Output();
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.syslog;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A template such as "syslog-%{facility}" rendered with the fields of a syslog message. The fields are
+ * "pri", "version", "facility", "severity", "host", "app", "procid" and "msgid". A field missing in
+ * the message is rendered with a placeholder.
+ *
+ * The template is rendered into a reusable buffer, and the rendered strings are looked up in a small
+ * cache of the previously rendered ones. Topics and keys such as the host or the application name
+ * take only a handful of values, so rendering them usually allocates nothing.
+ */
+public class SyslogTemplate {
+
+    private static final String[] FIELD_NAMES = {"pri", "version", "facility", "severity", "host", "app",
+            "procid", "msgid"};
+    private static final int PRI = 0;
+    private static final int VERSION = 1;
+    private static final int FACILITY = 2;
+    private static final int SEVERITY = 3;
+    private static final int HOST = 4;
+    private static final int APP = 5;
+    private static final int PROCID = 6;
+    private static final int MSGID = 7;
+    private static final int MAX_TOPIC_LENGTH = 255;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String pattern;
+    private final boolean topic;
+    // literals[i] precedes fields[i], and the last literal follows the last field.
+    private final String[] literals;
+    private final int[] fields;
+
+    private SyslogTemplate(String pattern, boolean topic, String[] literals, int[] fields) {
+        this.pattern = pattern;
+        this.topic = topic;
+        this.literals = literals;
+        this.fields = fields;
+    }
+
+    /**
+     * @param pattern the template
+     * @param topic whether the template renders a topic, in which case the characters not allowed in
+     *              a topic name are replaced with '_'.
+     */
+    public static SyslogTemplate compile(String pattern, boolean topic) {
+        List<String> literals = new ArrayList<String>();
+        List<Integer> fields = new ArrayList<Integer>();
+        int pos = 0;
+        while (true) {
+            int start = pattern.indexOf("%{", pos);
+            if (start < 0) {
+                literals.add(pattern.substring(pos));
+                break;
+            }
+            int end = pattern.indexOf('}', start);
+            if (end < 0) {
+                throw new IllegalArgumentException("Unterminated field in the syslog template '" + pattern + "'.");
+            }
+            literals.add(pattern.substring(pos, start));
+            fields.add(fieldId(pattern, pattern.substring(start + 2, end).trim()));
+            pos = end + 1;
+        }
+        int[] fieldIds = new int[fields.size()];
+        for (int i = 0; i < fieldIds.length; i++) {
+            fieldIds[i] = fields.get(i);
+        }
+        return new SyslogTemplate(pattern, topic, literals.toArray(new String[literals.size()]), fieldIds);
+    }
+
+    private static int fieldId(String pattern, String name) {
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if (FIELD_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown field '" + name + "' in the syslog template '" + pattern + "'.");
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Render the template with the fields of a message.
+     * @param message parsed message
+     * @param missing placeholder of the missing fields
+     * @param output buffer and cache of the rendered strings, confined to the calling thread.
+     */
+    public String render(SyslogMessage message, String missing, Output output) {
+        output.length = 0;
+        for (int i = 0; i < fields.length; i++) {
+            output.append(literals[i]);
+            appendField(message, fields[i], missing, output);
+        }
+        output.append(literals[fields.length]);
+        if (topic) {
+            output.sanitize(MAX_TOPIC_LENGTH);
+        }
+        return output.toCachedString();
+    }
+
+    private static void appendField(SyslogMessage message, int field, String missing, Output output) {
+        byte[] body = message.getBody();
+        switch (field) {
+            case PRI:
+                if (message.getPriority() < 0) {
+                    output.append(missing);
+                } else {
+                    output.append(message.getPriority());
+                }
+                break;
+            case VERSION:
+                output.append(message.getVersion());
+                break;
+            case FACILITY:
+                output.append(message.getPriority() < 0 ? missing : message.getFacilityName());
+                break;
+            case SEVERITY:
+                output.append(message.getPriority() < 0 ? missing : message.getSeverityName());
+                break;
+            case HOST:
+                if (message.getHostEnd() > message.getHostStart()) {
+                    output.append(body, message.getHostStart(), message.getHostEnd());
+                } else {
+                    output.append(message.getHostHeader() != null ? message.getHostHeader() : missing);
+                }
+                break;
+            case APP:
+                appendRange(body, message.getAppStart(), message.getAppEnd(), missing, output);
+                break;
+            case PROCID:
+                appendRange(body, message.getProcIdStart(), message.getProcIdEnd(), missing, output);
+                break;
+            case MSGID:
+                appendRange(body, message.getMsgIdStart(), message.getMsgIdEnd(), missing, output);
+                break;
+            default:
+                throw new IllegalStateException("Unknown field " + field);
+        }
+    }
+
+    private static void appendRange(byte[] body, int start, int end, String missing, Output output) {
+        if (end > start) {
+            output.append(body, start, end);
+        } else {
+            output.append(missing);
+        }
+    }
+
+    /**
+     * A reusable buffer for rendering the templates, along with a direct mapped cache of the rendered
+     * strings. An instance must not be shared between threads.
+     */
+    public static class Output {
+
+        private static final int CACHE_SIZE = 256;
+
+        private final String[] cache = new String[CACHE_SIZE];
+        private char[] chars = new char[128];
+        private int length;
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > chars.length) {
+                char[] grown = new char[Math.max(chars.length * 2, length + extra)];
+                System.arraycopy(chars, 0, grown, 0, length);
+                chars = grown;
+            }
+        }
+
+        private void append(String value) {
+            ensureCapacity(value.length());
+            value.getChars(0, value.length(), chars, length);
+            length += value.length();
+        }
+
+        private void append(int value) {
+            // at most three digits, the priority is below 192.
+            ensureCapacity(10);
+            if (value >= 100) {
+                chars[length++] = (char) ('0' + value / 100);
+            }
+            if (value >= 10) {
+                chars[length++] = (char) ('0' + value / 10 % 10);
+            }
+            chars[length++] = (char) ('0' + value % 10);
+        }
+
+        private void append(byte[] bytes, int start, int end) {
+            ensureCapacity(end - start);
+            int mark = length;
+            for (int i = start; i < end; i++) {
+                byte b = bytes[i];
+                if (b < 0) {
+                    // not ASCII. decode the field properly, which allocates.
+                    length = mark;
+                    append(new String(bytes, start, end - start, UTF_8));
+                    return;
+                }
+                chars[length++] = (char) b;
+            }
+        }
+
+        private void sanitize(int maxLength) {
+            length = Math.min(length, maxLength);
+            for (int i = 0; i < length; i++) {
+                char c = chars[i];
+                if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                        || c == '.' || c == '_' || c == '-')) {
+                    chars[i] = '_';
+                }
+            }
+        }
+
+        private String toCachedString() {
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + chars[i];
+            }
+            int index = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+            String cached = cache[index];
+            if (cached != null && matches(cached)) {
+                return cached;
+            }
+            String rendered = new String(chars, 0, length);
+            cache[index] = rendered;
+            return rendered;
+        }
+
+        private boolean matches(String cached) {
+            if (cached.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (cached.charAt(i) != chars[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
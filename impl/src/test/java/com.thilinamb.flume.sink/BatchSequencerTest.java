@@ -0,0 +1,117 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the ordering of pipelined batches
+ */
+public class BatchSequencerTest {
+
+    @Test
+    public void testCompletionInOrder() throws InterruptedException {
+        final BatchSequencer sequencer = new BatchSequencer();
+        final List<Long> completed = Collections.synchronizedList(new ArrayList<Long>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 3; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long ticket;
+                    sequencer.lockTake();
+                    try {
+                        ticket = sequencer.nextTicket();
+                    } finally {
+                        sequencer.unlockTake();
+                    }
+                    assertTrue(sequencer.awaitTurn(ticket));
+                    completed.add(ticket);
+                    sequencer.complete(ticket);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(3, completed.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Long.valueOf(i), completed.get(i));
+        }
+    }
+
+    @Test
+    public void testRollbackInReverseOrder() throws InterruptedException {
+        final BatchSequencer sequencer = new BatchSequencer();
+        final List<Long> rolledBack = Collections.synchronizedList(new ArrayList<Long>());
+        final long[] tickets = new long[3];
+        sequencer.lockTake();
+        for (int i = 0; i < tickets.length; i++) {
+            tickets[i] = sequencer.nextTicket();
+        }
+        sequencer.unlockTake();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        // later batches reach their turn, find the failure and roll back.
+        for (int i = 1; i < tickets.length; i++) {
+            final long ticket = tickets[i];
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    assertFalse(sequencer.awaitTurn(ticket));
+                    sequencer.abort(ticket);
+                    rolledBack.add(ticket);
+                    sequencer.rolledBack(ticket);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        // the first batch fails.
+        sequencer.abort(tickets[0]);
+        rolledBack.add(tickets[0]);
+        sequencer.rolledBack(tickets[0]);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(3, rolledBack.size());
+        assertEquals(Long.valueOf(2), rolledBack.get(0));
+        assertEquals(Long.valueOf(1), rolledBack.get(1));
+        assertEquals(Long.valueOf(0), rolledBack.get(2));
+        // the next batch proceeds normally.
+        sequencer.lockTake();
+        long ticket = sequencer.nextTicket();
+        sequencer.unlockTake();
+        assertTrue(sequencer.awaitTurn(ticket));
+        sequencer.complete(ticket);
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the circuit breaker guarding the sends to a cluster
+ */
+public class CircuitBreakerTest {
+
+    private KafkaSinkCounter counter;
+
+    @Before
+    public void setup() {
+        counter = new KafkaSinkCounter("breaker-test");
+    }
+
+    @Test
+    public void testOpenOnFailureRate() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 0.5, 4, 4, 60000, 1, counter);
+        for (int i = 0; i < 3; i++) {
+            breaker.onSuccess(acquire(breaker));
+        }
+        // a single failure out of four sends is below the threshold.
+        breaker.onFailure(acquire(breaker));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        // the oldest successful send leaves the window, making it two failures out of four.
+        breaker.onFailure(acquire(breaker));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.isCallPermitted());
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+        assertEquals(1, counter.getBreakerOpenCount());
+    }
+
+    @Test
+    public void testHalfOpenProbes() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("test", 0.5, 2, 1, 20, 2, counter);
+        breaker.onFailure(acquire(breaker));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(50);
+
+        // a failed probe opens the breaker again.
+        breaker.onFailure(acquire(breaker));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(50);
+
+        // only a limited number of probes are let through.
+        long firstProbe = acquire(breaker);
+        long secondProbe = acquire(breaker);
+        assertFalse(breaker.isCallPermitted());
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+        breaker.onSuccess(firstProbe);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onSuccess(secondProbe);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        assertEquals(2, counter.getBreakerOpenCount());
+        assertEquals(2, counter.getBreakerHalfOpenCount());
+        assertEquals(1, counter.getBreakerClosedCount());
+    }
+
+    @Test
+    public void testStaleOutcomesIgnored() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("test", 0.5, 2, 1, 20, 1, counter);
+        // a send acquired while closed is still in flight when the breaker opens.
+        long stale = acquire(breaker);
+        breaker.onFailure(acquire(breaker));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(50);
+
+        long probe = acquire(breaker);
+        // the late outcome of the earlier send neither frees the probe slot nor closes the breaker.
+        breaker.onSuccess(stale);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+        breaker.onFailure(stale);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.onSuccess(probe);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        // nor does it count towards the window of the closed breaker.
+        breaker.onFailure(probe);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, counter.getBreakerOpenCount());
+    }
+
+    private long acquire(CircuitBreaker breaker) {
+        long permit = breaker.tryAcquire();
+        assertTrue(permit != CircuitBreaker.REJECTED);
+        return permit;
+    }
+}
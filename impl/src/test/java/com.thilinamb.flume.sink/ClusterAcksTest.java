@@ -0,0 +1,81 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for collecting the acknowledgements of the clusters
+ */
+public class ClusterAcksTest {
+
+    @Test
+    public void testQuorumCountsUnreplicated() throws Exception {
+        KafkaClusterCounter early = new KafkaClusterCounter("acks-test-early");
+        KafkaClusterCounter late = new KafkaClusterCounter("acks-test-late");
+        ClusterAcks acks = new ClusterAcks(4, 2);
+        // a failure before the commit is counted only once the batch is committed.
+        acks.failure(early, 5, new IllegalStateException("early"));
+        assertEquals(0, early.getEventUnreplicatedCount());
+        acks.success();
+        acks.success();
+        acks.await(1000);
+        assertEquals(5, early.getEventUnreplicatedCount());
+        // a lagging cluster failing after the commit.
+        acks.failure(late, 5, new IllegalStateException("late"));
+        assertEquals(5, late.getEventUnreplicatedCount());
+    }
+
+    @Test
+    public void testFailedBatchNotCounted() throws Exception {
+        KafkaClusterCounter counter = new KafkaClusterCounter("acks-test-failed");
+        ClusterAcks acks = new ClusterAcks(2, 2);
+        acks.failure(counter, 5, new IllegalStateException("failed"));
+        try {
+            acks.await(1000);
+            fail("The batch should not be acknowledged");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        // the batch is rolled back, so its events are published again.
+        assertEquals(0, counter.getEventUnreplicatedCount());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        KafkaClusterCounter counter = new KafkaClusterCounter("acks-test-timeout");
+        ClusterAcks acks = new ClusterAcks(3, 2);
+        acks.success();
+        try {
+            acks.await(50);
+            fail("The batch should time out");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        // the outcomes after giving up do not count, since the batch is rolled back.
+        acks.failure(counter, 5, new IllegalStateException("late"));
+        acks.success();
+        assertEquals(0, counter.getEventUnreplicatedCount());
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the cache of the published event ids
+ */
+public class DedupCacheTest {
+
+    @Test
+    public void testAddAndEvict() {
+        DedupCache cache = new DedupCache(2);
+        cache.add(DedupCache.hash("event-1"));
+        cache.add(DedupCache.hash("event-2"));
+        // the oldest id is evicted once the capacity is reached.
+        cache.add(DedupCache.hash("event-3"));
+        assertEquals(2, cache.size());
+        assertFalse(cache.contains(DedupCache.hash("event-1")));
+        assertTrue(cache.contains(DedupCache.hash("event-2")));
+        assertTrue(cache.contains(DedupCache.hash("event-3")));
+        // zero is a valid id.
+        cache.add(0);
+        assertTrue(cache.contains(0));
+    }
+
+    @Test
+    public void testRemove() {
+        DedupCache cache = new DedupCache(10);
+        // an id is kept once per event, so two events with the same body are skipped only twice.
+        cache.add(DedupCache.hash("event-1"));
+        cache.add(DedupCache.hash("event-1"));
+        assertEquals(2, cache.size());
+        assertTrue(cache.remove(DedupCache.hash("event-1")));
+        assertTrue(cache.contains(DedupCache.hash("event-1")));
+        assertTrue(cache.remove(DedupCache.hash("event-1")));
+        assertFalse(cache.remove(DedupCache.hash("event-1")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testAgainstReferenceMultiset() {
+        int capacity = 100;
+        DedupCache cache = new DedupCache(capacity);
+        // ids in the insertion order, including the ones removed already, and the count of each id present.
+        LinkedList<Long> insertions = new LinkedList<Long>();
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        int expectedSize = 0;
+        // a small range of ids, so that the ids are added again and the probe sequences collide.
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long id = random.nextInt(300);
+            assertEquals(expected.containsKey(id), cache.contains(id));
+            if (random.nextBoolean()) {
+                if (insertions.size() == capacity) {
+                    long oldest = insertions.removeFirst();
+                    if (decrement(expected, oldest)) {
+                        expectedSize--;
+                    }
+                }
+                insertions.addLast(id);
+                Integer count = expected.get(id);
+                expected.put(id, count == null ? 1 : count + 1);
+                expectedSize++;
+                cache.add(id);
+            } else {
+                boolean removed = decrement(expected, id);
+                if (removed) {
+                    expectedSize--;
+                }
+                assertEquals(removed, cache.remove(id));
+            }
+            assertEquals(expectedSize, cache.size());
+        }
+    }
+
+    @Test
+    public void testBodyHash() {
+        assertEquals(DedupCache.hash("body".getBytes()), DedupCache.hash("body".getBytes()));
+        assertFalse(DedupCache.hash("body-1".getBytes()) == DedupCache.hash("body-2".getBytes()));
+    }
+
+    private boolean decrement(Map<Long, Integer> counts, long id) {
+        Integer count = counts.get(id);
+        if (count == null) {
+            return false;
+        }
+        if (count == 1) {
+            counts.remove(id);
+        } else {
+            counts.put(id, count - 1);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import com.thilinamb.flume.sink.util.TestUtil;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.Sink;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Allocation budget tests for the per-event path of the sink. The bytes allocated by the sink thread
+ * while draining the channel are measured with the per-thread allocation counters of the JVM, and a
+ * test fails when the bytes per event exceed the budget of its configuration. On JDK 8 the sink allocates
+ * about 12.0 KiB per event with single event batches and about 3.6 KiB per event with batches of 100. The
+ * default budgets leave about a quarter on top of that, so that the differences between JVMs and GC
+ * settings pass while a regression of a few KiB per event is caught. Each test logs its allocations.
+ *
+ * The budgets can be overridden with the system properties "allocation.budget.single",
+ * "allocation.budget.preprocessor" and "allocation.budget.batched", in bytes per event.
+ */
+public class KafkaSinkAllocationTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(KafkaSinkAllocationTest.class);
+    private static final String TOPIC = "allocation-test";
+    private static final String BUDGET_PREFIX = "allocation.budget.";
+    private static final int WARMUP_EVENTS = 5000;
+    private static final int MEASURED_EVENTS = 5000;
+    private static final byte[] BODY = new byte[256];
+
+    private static TestUtil testUtil = TestUtil.getInstance();
+    private static com.sun.management.ThreadMXBean threadBean;
+
+    @BeforeClass
+    public static void setup() throws InterruptedException {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        testUtil.prepare();
+        // the topic is created up front, so that its creation is not part of the measured allocations.
+        testUtil.createTopic(TOPIC, 1);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        if (threadBean != null) {
+            testUtil.tearDown();
+        }
+    }
+
+    @Test
+    public void testSingleEventBatches() throws EventDeliveryException {
+        Context context = prepareDefaultContext();
+        context.put(Constants.BATCH_SIZE, "1");
+        assertWithinBudget("single", context, 15 * 1024);
+    }
+
+    @Test
+    public void testPreprocessor() throws EventDeliveryException {
+        Context context = prepareDefaultContext();
+        context.put(Constants.BATCH_SIZE, "1");
+        context.put(Constants.PREPROCESSOR, "com.thilinamb.flume.sink.preprocessor.ModifyKeyPreprocessor");
+        assertWithinBudget("preprocessor", context, 16 * 1024);
+    }
+
+    @Test
+    public void testBatched() throws EventDeliveryException {
+        Context context = prepareDefaultContext();
+        context.put(Constants.BATCH_SIZE, "100");
+        assertWithinBudget("batched", context, 46 * 1024 / 10);
+    }
+
+    private void assertWithinBudget(String name, Context context, long defaultBudget)
+            throws EventDeliveryException {
+        long budget = Long.getLong(BUDGET_PREFIX + name, defaultBudget);
+        long bytesPerEvent = measureBytesPerEvent(context);
+        logger.info("Allocated " + bytesPerEvent + " bytes per event with the " + name
+                + " configuration, budget is " + budget + " bytes.");
+        assertTrue("Allocated " + bytesPerEvent + " bytes per event with the " + name
+                + " configuration, budget is " + budget + " bytes.", bytesPerEvent <= budget);
+    }
+
+    /**
+     * Drain the channel twice, first to load the classes, fetch the topic metadata and let the JIT
+     * compile the hot path, then to measure. Only the allocations of the sink thread while processing
+     * are counted, not the ones made when filling the channel.
+     */
+    private long measureBytesPerEvent(Context context) throws EventDeliveryException {
+        Sink kafkaSink = new KafkaSink();
+        Configurables.configure(kafkaSink, context);
+        Channel memoryChannel = new MemoryChannel();
+        Configurables.configure(memoryChannel, context);
+        kafkaSink.setChannel(memoryChannel);
+        kafkaSink.start();
+        try {
+            drain(kafkaSink, memoryChannel, WARMUP_EVENTS);
+            return drain(kafkaSink, memoryChannel, MEASURED_EVENTS) / MEASURED_EVENTS;
+        } finally {
+            kafkaSink.stop();
+        }
+    }
+
+    private long drain(Sink kafkaSink, Channel memoryChannel, int events) throws EventDeliveryException {
+        Transaction tx = memoryChannel.getTransaction();
+        tx.begin();
+        for (int i = 0; i < events; i++) {
+            memoryChannel.put(EventBuilder.withBody(BODY));
+        }
+        tx.commit();
+        tx.close();
+
+        long threadId = Thread.currentThread().getId();
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        // a failed batch is reported with an EventDeliveryException, so the loop ends on an empty channel.
+        while (kafkaSink.process() == Sink.Status.READY) {
+            // drain the channel
+        }
+        return threadBean.getThreadAllocatedBytes(threadId) - start;
+    }
+
+    private Context prepareDefaultContext() {
+        Context context = new Context();
+        context.put("kafka.metadata.broker.list", testUtil.getKafkaServerUrl());
+        context.put("kafka.serializer.class", "kafka.serializer.StringEncoder");
+        context.put("kafka.request.required.acks", "1");
+        context.put(Constants.TOPIC, TOPIC);
+        context.put("capacity", Integer.toString(WARMUP_EVENTS));
+        context.put("transactionCapacity", Integer.toString(WARMUP_EVENTS));
+        return context;
+    }
+}
@@ -0,0 +1,326 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.thilinamb.flume.sink.util.TestUtil;
+import kafka.consumer.ConsumerConfig;
+import kafka.consumer.ConsumerIterator;
+import kafka.consumer.ConsumerTimeoutException;
+import kafka.consumer.KafkaStream;
+import kafka.javaapi.consumer.ConsumerConnector;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * End to end benchmark of the sink against the embedded broker. For each combination of the acks
+ * level, compression codec, batch size, payload size and partition count, a fresh topic is created,
+ * messages are published through the sink and consumed back. The throughput and the latency are
+ * measured as seen by the consumer, from the time an event is put into the channel until it's
+ * consumed.
+ *
+ * This is excluded from the regular build. Run it with <code>mvn test -Pbenchmark</code>. The values
+ * of each dimension can be overridden with system properties, e.g. <code>-Dbenchmark.acks=1,-1</code>.
+ * The results are written to <code>target/benchmark</code> as CSV and JSON.
+ */
+public class KafkaSinkBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(KafkaSinkBenchmark.class);
+    private static final TestUtil testUtil = TestUtil.getInstance();
+    private static final long CONSUME_TIMEOUT_MS = 120000;
+    private static final char WARMUP = 'W';
+    private static final char MEASURED = 'M';
+
+    @BeforeClass
+    public static void setup() {
+        testUtil.prepare();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        testUtil.tearDown();
+    }
+
+    @Test
+    public void runMatrix() throws Exception {
+        List<String> acksLevels = getList("benchmark.acks", "1,-1");
+        List<String> codecs = getList("benchmark.compression", "none,gzip,snappy");
+        List<String> batchSizes = getList("benchmark.batch.sizes", "100,1000");
+        List<String> payloadSizes = getList("benchmark.payload.sizes", "100,1000");
+        List<String> partitionCounts = getList("benchmark.partitions", "1,4");
+        int messages = Integer.getInteger("benchmark.messages", 20000);
+
+        List<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+        for (String acks : acksLevels) {
+            for (String codec : codecs) {
+                for (String batchSize : batchSizes) {
+                    for (String payloadSize : payloadSizes) {
+                        for (String partitions : partitionCounts) {
+                            BenchmarkResult result = new BenchmarkResult();
+                            result.acks = Integer.parseInt(acks);
+                            result.compression = codec;
+                            result.batchSize = Integer.parseInt(batchSize);
+                            result.payloadSize = Integer.parseInt(payloadSize);
+                            result.partitions = Integer.parseInt(partitions);
+                            result.messages = messages;
+                            run(result, "benchmark-" + results.size());
+                            logger.info("Benchmark result: " + result);
+                            results.add(result);
+                        }
+                    }
+                }
+            }
+        }
+        writeResults(results);
+        for (BenchmarkResult result : results) {
+            assertTrue("Messages were lost: " + result, result.consumed == result.messages);
+        }
+    }
+
+    private void run(BenchmarkResult result, String topic) throws Exception {
+        testUtil.createTopic(topic, result.partitions);
+
+        Context context = new Context();
+        context.put("kafka.metadata.broker.list", testUtil.getKafkaServerUrl());
+        context.put("kafka.serializer.class", "kafka.serializer.StringEncoder");
+        context.put("kafka.request.required.acks", Integer.toString(result.acks));
+        context.put("kafka.compression.codec", result.compression);
+        context.put(Constants.BATCH_SIZE, Integer.toString(result.batchSize));
+        context.put(Constants.TOPIC, topic);
+        KafkaSink sink = new KafkaSink();
+        Configurables.configure(sink, context);
+        Channel channel = new MemoryChannel();
+        Context channelContext = new Context();
+        channelContext.put("capacity", Integer.toString(result.batchSize * 2));
+        channelContext.put("transactionCapacity", Integer.toString(result.batchSize));
+        Configurables.configure(channel, channelContext);
+        sink.setChannel(channel);
+        channel.start();
+        sink.start();
+
+        BenchmarkConsumer consumer = new BenchmarkConsumer(topic, result.messages);
+        Thread consumerThread = new Thread(consumer, topic + "-consumer");
+        consumerThread.start();
+        try {
+            // publish a batch until the consumer receives it, so that the measurement does not include
+            // the time taken by the consumer to join.
+            while (!consumer.warmedUp.await(1, TimeUnit.SECONDS)) {
+                publishBatch(sink, channel, WARMUP, result.batchSize, result.payloadSize);
+            }
+
+            long start = System.nanoTime();
+            for (int sent = 0; sent < result.messages; sent += result.batchSize) {
+                publishBatch(sink, channel, MEASURED, Math.min(result.batchSize, result.messages - sent),
+                        result.payloadSize);
+            }
+            consumerThread.join(CONSUME_TIMEOUT_MS);
+
+            result.consumed = consumer.consumed;
+            double seconds = Math.max(consumer.lastReceived - start, 1) / 1e9;
+            result.durationMs = (long) (seconds * 1000);
+            result.throughputMessagesPerSec = consumer.consumed / seconds;
+            result.throughputMBPerSec = consumer.consumed * (double) result.payloadSize / seconds / (1024 * 1024);
+            long[] latencies = Arrays.copyOf(consumer.latencies, consumer.consumed);
+            Arrays.sort(latencies);
+            result.latencyP50Ms = percentile(latencies, 50);
+            result.latencyP95Ms = percentile(latencies, 95);
+            result.latencyP99Ms = percentile(latencies, 99);
+            result.latencyMaxMs = percentile(latencies, 100);
+        } finally {
+            consumer.running = false;
+            consumerThread.join();
+            consumer.connector.shutdown();
+            sink.stop();
+            channel.stop();
+        }
+    }
+
+    private void publishBatch(KafkaSink sink, Channel channel, char type, int count, int payloadSize)
+            throws EventDeliveryException {
+        Transaction tx = channel.getTransaction();
+        tx.begin();
+        for (int i = 0; i < count; i++) {
+            StringBuilder body = new StringBuilder(payloadSize);
+            body.append(type).append(System.nanoTime()).append('|');
+            while (body.length() < payloadSize) {
+                body.append('x');
+            }
+            channel.put(EventBuilder.withBody(body.toString().getBytes()));
+        }
+        tx.commit();
+        tx.close();
+        sink.process();
+    }
+
+    private void writeResults(List<BenchmarkResult> results) throws IOException {
+        File outputDir = new File(System.getProperty("benchmark.output.dir", "target/benchmark"));
+        outputDir.mkdirs();
+        Writer csv = new FileWriter(new File(outputDir, "kafka-sink-benchmark.csv"));
+        try {
+            csv.write(BenchmarkResult.CSV_HEADER + "\n");
+            for (BenchmarkResult result : results) {
+                csv.write(result.toCsv() + "\n");
+            }
+        } finally {
+            csv.close();
+        }
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        Writer json = new FileWriter(new File(outputDir, "kafka-sink-benchmark.json"));
+        try {
+            gson.toJson(results, json);
+        } finally {
+            json.close();
+        }
+        logger.info("Benchmark results are written to " + outputDir.getAbsolutePath());
+    }
+
+    private static double percentile(long[] sortedLatencies, double percentile) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(index, 0)] / 1e6;
+    }
+
+    private static List<String> getList(String property, String defaultValue) {
+        List<String> values = new ArrayList<String>();
+        for (String value : System.getProperty(property, defaultValue).split(",")) {
+            values.add(value.trim());
+        }
+        return values;
+    }
+
+    /**
+     * Consumes the messages of a topic, recording the latency of each measured message from the
+     * timestamp in its body.
+     */
+    private static class BenchmarkConsumer implements Runnable {
+
+        private final ConsumerConnector connector;
+        private final KafkaStream<byte[], byte[]> stream;
+        private final long[] latencies;
+        private final CountDownLatch warmedUp = new CountDownLatch(1);
+        private volatile boolean running = true;
+        private volatile int consumed;
+        private volatile long lastReceived;
+
+        private BenchmarkConsumer(String topic, int messages) {
+            Properties props = new Properties();
+            props.put("zookeeper.connect", testUtil.getZkUrl());
+            props.put("group.id", topic);
+            props.put("auto.offset.reset", "smallest");
+            props.put("consumer.timeout.ms", "100");
+            connector = kafka.consumer.Consumer.createJavaConsumerConnector(new ConsumerConfig(props));
+            stream = connector.createMessageStreams(Collections.singletonMap(topic, 1)).get(topic).get(0);
+            latencies = new long[messages];
+        }
+
+        @Override
+        public void run() {
+            ConsumerIterator<byte[], byte[]> it = stream.iterator();
+            int count = 0;
+            while (running && count < latencies.length) {
+                byte[] message;
+                try {
+                    message = it.next().message();
+                } catch (ConsumerTimeoutException e) {
+                    continue;
+                }
+                long received = System.nanoTime();
+                if (message[0] != MEASURED) {
+                    warmedUp.countDown();
+                    continue;
+                }
+                int end = 1;
+                while (message[end] != '|') {
+                    end++;
+                }
+                long sent = Long.parseLong(new String(message, 1, end - 1));
+                latencies[count++] = received - sent;
+                lastReceived = received;
+                consumed = count;
+            }
+        }
+    }
+
+    /**
+     * Result of a combination of the settings. The fields are written as is to the results.
+     */
+    private static class BenchmarkResult {
+
+        private static final String CSV_HEADER = "acks,compression,batch_size,payload_size,partitions,messages," +
+                "consumed,duration_ms,throughput_msgs_per_sec,throughput_mb_per_sec,latency_p50_ms," +
+                "latency_p95_ms,latency_p99_ms,latency_max_ms";
+
+        private int acks;
+        private String compression;
+        private int batchSize;
+        private int payloadSize;
+        private int partitions;
+        private int messages;
+        private int consumed;
+        private long durationMs;
+        private double throughputMessagesPerSec;
+        private double throughputMBPerSec;
+        private double latencyP50Ms;
+        private double latencyP95Ms;
+        private double latencyP99Ms;
+        private double latencyMaxMs;
+
+        private String toCsv() {
+            // a fixed locale, so that the decimal separator does not clash with the field separator.
+            return String.format(Locale.ENGLISH, "%d,%s,%d,%d,%d,%d,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                    acks, compression, batchSize, payloadSize, partitions, messages, consumed, durationMs,
+                    throughputMessagesPerSec, throughputMBPerSec, latencyP50Ms, latencyP95Ms, latencyP99Ms, latencyMaxMs);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "acks=%d, compression=%s, batch size=%d, payload size=%d, " +
+                    "partitions=%d: %.0f messages/s, p50 %.2fms, p99 %.2fms", acks, compression, batchSize,
+                    payloadSize, partitions, throughputMessagesPerSec, latencyP50Ms, latencyP99Ms);
+        }
+    }
+}
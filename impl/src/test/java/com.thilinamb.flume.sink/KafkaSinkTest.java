@@ -18,8 +18,14 @@
 
 package com.thilinamb.flume.sink;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.thilinamb.flume.sink.util.TestUtil;
 import kafka.message.MessageAndMetadata;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DecoderFactory;
 import org.apache.flume.*;
 import org.apache.flume.channel.MemoryChannel;
 import org.apache.flume.conf.Configurables;
@@ -28,10 +34,18 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -44,10 +58,12 @@ public class KafkaSinkTest {
     @BeforeClass
     public static void setup(){
         testUtil.prepare();
-        List<String> topics = new ArrayList<String>(3);
+        List<String> topics = new ArrayList<String>(5);
         topics.add(Constants.DEFAULT_TOPIC);
         topics.add(TestConstants.STATIC_TOPIC);
         topics.add(TestConstants.CUSTOM_TOPIC);
+        topics.add(TestConstants.AVRO_TOPIC);
+        topics.add(TestConstants.ROLLUP_TOPIC);
         testUtil.initTopicList(topics);
     }
 
@@ -187,6 +203,613 @@ public class KafkaSinkTest {
         assertEquals(TestConstants.CUSTOM_MSG_BODY, msgBody);
     }
 
+    @Test
+    public void testAvroConversion() throws IOException {
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.AVRO_TOPIC);
+        // the schema for the topic is read from ${avro.schema.dir}/avro-topic.avsc
+        String schemaDir = getClass().getResource("/avro").getPath();
+        context.put("avro.enabled", "true");
+        context.put("avro.schema.dir", schemaDir);
+        String msg = "{\"host\": \"localhost\", \"severity\": 2, \"message\": \"avro-test\"}";
+
+        try {
+            Sink.Status status = prepareAndSend(context, msg);
+            if (status == Sink.Status.BACKOFF) {
+                fail("Error Occurred");
+            }
+        } catch (EventDeliveryException ex) {
+            // ignore
+        }
+
+        MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.AVRO_TOPIC);
+        Schema schema = new Schema.Parser().parse(new File(schemaDir, TestConstants.AVRO_TOPIC + ".avsc"));
+        GenericRecord record = new GenericDatumReader<GenericRecord>(schema).read(null,
+                DecoderFactory.get().binaryDecoder((byte[]) message.message(), null));
+        assertEquals("localhost", record.get("host").toString());
+        assertEquals(2, record.get("severity"));
+        assertEquals("avro-test", record.get("message").toString());
+    }
+
+    @Test
+    public void testAvroConversionFailure() throws Exception {
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.AVRO_TOPIC);
+        context.put("avro.enabled", "true");
+        context.put("avro.schema.dir", getClass().getResource("/avro").getPath());
+
+        KafkaSink kafkaSink = new KafkaSink();
+        kafkaSink.setName("avro-failure-test");
+        Configurables.configure(kafkaSink, context);
+        Channel memoryChannel = new MemoryChannel();
+        Configurables.configure(memoryChannel, context);
+        kafkaSink.setChannel(memoryChannel);
+        kafkaSink.start();
+
+        // a malformed event is dropped instead of failing the batch.
+        putEvent(memoryChannel, "{\"host\": \"localhost\", ");
+        putEvent(memoryChannel, "{\"host\": \"localhost\", \"severity\": 3, \"message\": \"avro-valid\"}");
+        assertEquals(Sink.Status.READY, kafkaSink.process());
+
+        MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.AVRO_TOPIC);
+        Schema schema = new Schema.Parser().parse(getClass().getResourceAsStream(
+                "/avro/" + TestConstants.AVRO_TOPIC + ".avsc"));
+        GenericRecord record = new GenericDatumReader<GenericRecord>(schema).read(null,
+                DecoderFactory.get().binaryDecoder((byte[]) message.message(), null));
+        assertEquals("avro-valid", record.get("message").toString());
+
+        ObjectName counterName = new ObjectName("org.apache.flume.sink:type=avro-failure-test");
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(1L, mBeanServer.getAttribute(counterName, "AvroConversionFailureCount"));
+        kafkaSink.stop();
+    }
+
+    @Test
+    public void testParallelPreprocessing(){
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.STATIC_TOPIC);
+        // every message has the same key, hence published to the same partition.
+        context.put(Constants.PREPROCESSOR, "com.thilinamb.flume.sink.preprocessor.ModifyKeyPreprocessor");
+        context.put(Constants.PREPROCESSOR_THREADS, "4");
+        List<String> msgs = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            msgs.add("parallel-preprocessing-test-" + i);
+        }
+
+        try {
+            Sink.Status status = prepareAndSend(context, msgs);
+            if (status == Sink.Status.BACKOFF) {
+                fail("Error Occurred");
+            }
+        } catch (EventDeliveryException ex) {
+            // ignore
+        }
+
+        // messages should be received in the order they were put into the channel.
+        for (String msg : msgs) {
+            MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+            assertEquals(msg, new String((byte[]) message.message()));
+        }
+    }
+
+    @Test
+    public void testCoalescing(){
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.STATIC_TOPIC);
+        // every message has the same key, hence only the last message should be published.
+        context.put(Constants.PREPROCESSOR, "com.thilinamb.flume.sink.preprocessor.ModifyKeyPreprocessor");
+        context.put(Constants.COALESCE, "true");
+        List<String> msgs = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            msgs.add("coalesce-test-" + i);
+        }
+
+        try {
+            Sink.Status status = prepareAndSend(context, msgs);
+            if (status == Sink.Status.BACKOFF) {
+                fail("Error Occurred");
+            }
+        } catch (EventDeliveryException ex) {
+            // ignore
+        }
+
+        // the superseded messages would have been published before the last one, if they were not dropped.
+        MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+        assertEquals("coalesce-test-2", new String((byte[]) message.message()));
+    }
+
+    @Test
+    public void testPipelinedBatches() throws InterruptedException {
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.STATIC_TOPIC);
+        // every message has the same key, hence published to the same partition.
+        context.put(Constants.PREPROCESSOR, "com.thilinamb.flume.sink.preprocessor.ModifyKeyPreprocessor");
+        context.put(Constants.BATCH_SIZE, "2");
+        context.put(Constants.PIPELINE_DEPTH, "3");
+        Sink kafkaSink = new KafkaSink();
+        Configurables.configure(kafkaSink, context);
+        Channel memoryChannel = new MemoryChannel();
+        Configurables.configure(memoryChannel, context);
+        kafkaSink.setChannel(memoryChannel);
+        kafkaSink.start();
+
+        List<String> msgs = new ArrayList<String>();
+        Transaction tx = memoryChannel.getTransaction();
+        tx.begin();
+        for (int i = 0; i < 10; i++) {
+            String msg = "pipelined-batches-test-" + i;
+            msgs.add(msg);
+            memoryChannel.put(EventBuilder.withBody(msg.getBytes()));
+        }
+        tx.commit();
+        tx.close();
+
+        // the batches are processed by the pipeline threads as well as the sink runner(this thread)
+        try {
+            while (kafkaSink.process() == Sink.Status.READY) {
+                // keep processing until the channel is empty
+            }
+        } catch (EventDeliveryException ex) {
+            // ignore
+        }
+
+        // messages should be received in the order they were put into the channel.
+        for (String msg : msgs) {
+            MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+            assertEquals(msg, new String((byte[]) message.message()));
+        }
+        kafkaSink.stop();
+    }
+
+    @Test
+    public void testMultiClusterFanOut(){
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.STATIC_TOPIC);
+        // both clusters point to the same broker. So the message should be received twice.
+        context.put(Constants.CLUSTERS, "primary secondary");
+        context.put("clusters.primary.kafka.client.id", "primary");
+        context.put("clusters.secondary.kafka.client.id", "secondary");
+        context.put(Constants.CLUSTERS_COMMIT_POLICY, Constants.COMMIT_POLICY_ALL);
+        String msg = "multi-cluster-fan-out-test";
+
+        try {
+            Sink.Status status = prepareAndSend(context, msg);
+            if (status == Sink.Status.BACKOFF) {
+                fail("Error Occurred");
+            }
+        } catch (EventDeliveryException ex) {
+            // ignore
+        }
+
+        for (int i = 0; i < 2; i++) {
+            MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+            assertEquals(msg, new String((byte[]) message.message()));
+        }
+    }
+
+    @Test
+    public void testClusterFailover(){
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.STATIC_TOPIC);
+        // the primary cluster is not reachable. So the sink should switch to the secondary after the first failure.
+        context.put(Constants.CLUSTERS, "primary secondary");
+        context.put(Constants.CLUSTERS_MODE, Constants.CLUSTERS_MODE_FAILOVER);
+        context.put("clusters.primary.kafka.metadata.broker.list", "localhost:1");
+        context.put("clusters.primary.kafka.message.send.max.retries", "0");
+        context.put(Constants.FAILOVER_MIN_SAMPLES, "1");
+        String msg = "cluster-failover-test";
+
+        Sink kafkaSink = new KafkaSink();
+        Configurables.configure(kafkaSink, context);
+        Channel memoryChannel = new MemoryChannel();
+        Configurables.configure(memoryChannel, context);
+        kafkaSink.setChannel(memoryChannel);
+        kafkaSink.start();
+
+        Transaction tx = memoryChannel.getTransaction();
+        tx.begin();
+        memoryChannel.put(EventBuilder.withBody(msg.getBytes()));
+        tx.commit();
+        tx.close();
+
+        try {
+            kafkaSink.process();
+            fail("Publishing to the unreachable primary cluster should fail.");
+        } catch (EventDeliveryException ex) {
+            // expected. the event is rolled back.
+        }
+        try {
+            Sink.Status status = kafkaSink.process();
+            if (status == Sink.Status.BACKOFF) {
+                fail("Error Occurred");
+            }
+        } catch (EventDeliveryException ex) {
+            fail("Publishing to the secondary cluster failed.");
+        }
+
+        MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+        assertEquals(msg, new String((byte[]) message.message()));
+        kafkaSink.stop();
+    }
+
+    @Test
+    public void testPriorityLanes(){
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.STATIC_TOPIC);
+        context.put(Constants.PRIORITY_HEADER, "Severity");
+        context.put(Constants.DEDUP_ENABLED, "true");
+        // the urgent message is the last one in the channel, but should be published first.
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 2; i++) {
+            events.add(EventBuilder.withBody(("bulk-test-" + i).getBytes(),
+                    Collections.singletonMap("Severity", "6")));
+        }
+        events.add(EventBuilder.withBody("urgent-test".getBytes(), Collections.singletonMap("Severity", "1")));
+
+        try {
+            Sink.Status status = prepareAndSendEvents(context, events);
+            if (status == Sink.Status.BACKOFF) {
+                fail("Error Occurred");
+            }
+        } catch (EventDeliveryException ex) {
+            // ignore
+        }
+
+        MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+        assertEquals("urgent-test", new String((byte[]) message.message()));
+        for (int i = 0; i < 2; i++) {
+            message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+            assertEquals("bulk-test-" + i, new String((byte[]) message.message()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPriorityLanesRequireDedup() {
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.STATIC_TOPIC);
+        context.put(Constants.PRIORITY_HEADER, "Severity");
+        Configurables.configure(new KafkaSink(), context);
+    }
+
+    @Test
+    public void testDedupOnRedelivery() throws Exception {
+        Context context = prepareDefaultContext();
+        // the second event of the first batch fails once, after the first event is acknowledged.
+        context.put(Constants.PREPROCESSOR, "com.thilinamb.flume.sink.preprocessor.FailOncePreprocessor");
+        context.put(Constants.DEDUP_ENABLED, "true");
+        context.put(Constants.DEDUP_CHUNK_SIZE, "1");
+
+        KafkaSink kafkaSink = new KafkaSink();
+        kafkaSink.setName("dedup-test");
+        Configurables.configure(kafkaSink, context);
+        Channel memoryChannel = new MemoryChannel();
+        Configurables.configure(memoryChannel, context);
+        kafkaSink.setChannel(memoryChannel);
+        kafkaSink.start();
+
+        putEvent(memoryChannel, "dedup-test");
+        putEvent(memoryChannel, TestConstants.FAIL_ONCE_MSG_BODY);
+        try {
+            kafkaSink.process();
+            fail("Publishing to the invalid topic should fail.");
+        } catch (EventDeliveryException ex) {
+            // expected. the batch is rolled back.
+        }
+        // the event acknowledged before the rollback is skipped.
+        assertEquals(Sink.Status.READY, kafkaSink.process());
+        // a later event with the same body is not a redelivery, hence published.
+        putEvent(memoryChannel, "dedup-test");
+        assertEquals(Sink.Status.READY, kafkaSink.process());
+
+        String[] expected = {"dedup-test", TestConstants.FAIL_ONCE_MSG_BODY, "dedup-test"};
+        for (String msg : expected) {
+            MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+            assertEquals(msg, new String((byte[]) message.message()));
+        }
+        ObjectName counterName = new ObjectName("org.apache.flume.sink:type=dedup-test");
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(1L, mBeanServer.getAttribute(counterName, "DedupHitCount"));
+        assertEquals(0L, mBeanServer.getAttribute(counterName, "DedupSize"));
+        kafkaSink.stop();
+    }
+
+    @Test
+    public void testRoutingReload() throws IOException {
+        File reloadFile = File.createTempFile("kafka-sink-reload", ".properties");
+        reloadFile.delete();
+        reloadFile.deleteOnExit();
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.STATIC_TOPIC);
+        context.put(Constants.RELOAD_FILE, reloadFile.getAbsolutePath());
+        context.put(Constants.RELOAD_INTERVAL_MS, "0");
+
+        Sink kafkaSink = new KafkaSink();
+        Configurables.configure(kafkaSink, context);
+        Channel memoryChannel = new MemoryChannel();
+        Configurables.configure(memoryChannel, context);
+        kafkaSink.setChannel(memoryChannel);
+        kafkaSink.start();
+
+        try {
+            putEvent(memoryChannel, "reload-test-0");
+            kafkaSink.process();
+            // switch the topic without restarting the sink.
+            FileWriter writer = new FileWriter(reloadFile);
+            writer.write(Constants.TOPIC + " = " + TestConstants.CUSTOM_TOPIC + "\n");
+            writer.close();
+            putEvent(memoryChannel, "reload-test-1");
+            kafkaSink.process();
+        } catch (EventDeliveryException ex) {
+            fail("Publishing failed.");
+        }
+
+        MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+        assertEquals("reload-test-0", new String((byte[]) message.message()));
+        message = testUtil.getNextMessageFromConsumer(TestConstants.CUSTOM_TOPIC);
+        assertEquals("reload-test-1", new String((byte[]) message.message()));
+        kafkaSink.stop();
+    }
+
+    @Test
+    public void testRollup() {
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.STATIC_TOPIC);
+        context.put(Constants.ROLLUP_ENABLED, "true");
+        context.put(Constants.ROLLUP_TOPIC, TestConstants.ROLLUP_TOPIC);
+        context.put(Constants.ROLLUP_DIMENSIONS, "host, " + Constants.ROLLUP_DIMENSION_TOPIC);
+        context.put(Constants.ROLLUP_RAW, "false");
+
+        Sink kafkaSink = new KafkaSink();
+        Configurables.configure(kafkaSink, context);
+        Channel memoryChannel = new MemoryChannel();
+        Configurables.configure(memoryChannel, context);
+        kafkaSink.setChannel(memoryChannel);
+        kafkaSink.start();
+
+        String[] hosts = {"web1", "web1", "web2"};
+        Transaction tx = memoryChannel.getTransaction();
+        tx.begin();
+        for (String host : hosts) {
+            memoryChannel.put(EventBuilder.withBody("rollup-test".getBytes(),
+                    Collections.singletonMap("host", host)));
+        }
+        tx.commit();
+        tx.close();
+        try {
+            kafkaSink.process();
+        } catch (EventDeliveryException ex) {
+            fail("Aggregating failed.");
+        }
+        // the current window is published when the sink stops.
+        kafkaSink.stop();
+
+        MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.ROLLUP_TOPIC);
+        assertEquals("web1|" + TestConstants.STATIC_TOPIC, message.key() == null ? null :
+                new String((byte[]) message.key()));
+        JsonObject summary = new JsonParser().parse(new String((byte[]) message.message())).getAsJsonObject();
+        assertEquals("web1", summary.get("host").getAsString());
+        assertEquals(TestConstants.STATIC_TOPIC, summary.get(Constants.ROLLUP_DIMENSION_TOPIC).getAsString());
+        assertEquals(2, summary.get("count").getAsLong());
+        assertEquals(2 * "rollup-test".length(), summary.get("bytes").getAsLong());
+        message = testUtil.getNextMessageFromConsumer(TestConstants.ROLLUP_TOPIC);
+        summary = new JsonParser().parse(new String((byte[]) message.message())).getAsJsonObject();
+        assertEquals("web2", summary.get("host").getAsString());
+        assertEquals(1, summary.get("count").getAsLong());
+    }
+
+    @Test
+    public void testOversizeSplit() throws IOException {
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.STATIC_TOPIC);
+        context.put(Constants.OVERSIZE_POLICY, Constants.OVERSIZE_POLICY_SPLIT);
+        context.put(Constants.OVERSIZE_MAX_BYTES, "100000");
+        char[] chars = new char[300000];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + i % 26);
+        }
+        String msg = new String(chars);
+
+        try {
+            Sink.Status status = prepareAndSend(context, msg);
+            if (status == Sink.Status.BACKOFF) {
+                fail("Error Occurred");
+            }
+        } catch (EventDeliveryException ex) {
+            fail("Publishing failed.");
+        }
+
+        // the message is published in four chunks, reassembled by the consumer.
+        MessageReassembler reassembler = new MessageReassembler(10, 60000);
+        byte[] payload = null;
+        for (int i = 0; i < 4; i++) {
+            MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+            payload = reassembler.add((byte[]) message.message());
+        }
+        assertEquals(msg, new String(payload, "UTF8"));
+    }
+
+    @Test
+    public void testDrainOnStop() throws Exception {
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.STATIC_TOPIC);
+        context.put(Constants.DRAIN_TIMEOUT_MS, "5000");
+        context.put(Constants.PIPELINE_DEPTH, "2");
+
+        KafkaSink kafkaSink = new KafkaSink();
+        kafkaSink.setName("drain-test");
+        Configurables.configure(kafkaSink, context);
+        Channel memoryChannel = new MemoryChannel();
+        Configurables.configure(memoryChannel, context);
+        kafkaSink.setChannel(memoryChannel);
+        kafkaSink.start();
+
+        putEvent(memoryChannel, "drain-test-0");
+        kafkaSink.process();
+        long start = System.currentTimeMillis();
+        kafkaSink.stop();
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+        assertEquals("drain-test-0", new String((byte[]) message.message()));
+
+        // no more events are taken once the sink is stopping.
+        putEvent(memoryChannel, "drain-test-1");
+        assertEquals(Sink.Status.BACKOFF, kafkaSink.process());
+        Transaction tx = memoryChannel.getTransaction();
+        tx.begin();
+        assertEquals("drain-test-1", new String(memoryChannel.take().getBody()));
+        tx.commit();
+        tx.close();
+
+        ObjectName counterName = new ObjectName("org.apache.flume.sink:type=drain-test");
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(0L, mBeanServer.getAttribute(counterName, "DrainLeftoverEventCount"));
+        assertEquals(0L, mBeanServer.getAttribute(counterName, "DrainTimeoutCount"));
+    }
+
+    @Test
+    public void testTopicCache() throws Exception {
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.STATIC_TOPIC);
+        context.put(Constants.PREPROCESSOR, "com.thilinamb.flume.sink.preprocessor.ModifyTopicPreprocessor");
+        context.put(Constants.TOPIC_CACHE_ENABLED, "true");
+        context.put(Constants.TOPIC_OVERFLOW, TestConstants.STATIC_TOPIC);
+
+        KafkaSink kafkaSink = new KafkaSink();
+        kafkaSink.setName("topic-cache-test");
+        Configurables.configure(kafkaSink, context);
+        Channel memoryChannel = new MemoryChannel();
+        Configurables.configure(memoryChannel, context);
+        kafkaSink.setChannel(memoryChannel);
+        kafkaSink.start();
+
+        // the topic is not known yet, so the event is published to the overflow topic.
+        putEvent(memoryChannel, "topic-cache-0");
+        assertEquals(Sink.Status.READY, kafkaSink.process());
+        MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+        assertEquals("topic-cache-0", new String((byte[]) message.message()));
+
+        ObjectName counterName = new ObjectName("org.apache.flume.sink:type=topic-cache-test");
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((Long) mBeanServer.getAttribute(counterName, "TopicCacheSize") == 0 &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+
+        // once the topic is resolved, the events are published to it.
+        putEvent(memoryChannel, "topic-cache-1");
+        assertEquals(Sink.Status.READY, kafkaSink.process());
+        message = testUtil.getNextMessageFromConsumer(TestConstants.CUSTOM_TOPIC);
+        assertEquals("topic-cache-1", new String((byte[]) message.message()));
+        assertEquals(1L, mBeanServer.getAttribute(counterName, "TopicCacheOverflowCount"));
+        assertEquals(1L, mBeanServer.getAttribute(counterName, "TopicCacheHitCount"));
+        kafkaSink.stop();
+    }
+
+    @Test
+    public void testOverflowTopicCoalescing() throws Exception {
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.STATIC_TOPIC);
+        context.put(Constants.PREPROCESSOR, "com.thilinamb.flume.sink.preprocessor.HeaderTopicPreprocessor");
+        context.put(Constants.COALESCE, "true");
+        context.put(Constants.TOPIC_CACHE_ENABLED, "true");
+        context.put(Constants.TOPIC_OVERFLOW, TestConstants.STATIC_TOPIC);
+        context.put("avro.enabled", "true");
+        context.put("avro.schema.dir", getClass().getResource("/avro").getPath());
+
+        KafkaSink kafkaSink = new KafkaSink();
+        kafkaSink.setName("overflow-coalesce-test");
+        Configurables.configure(kafkaSink, context);
+        Channel memoryChannel = new MemoryChannel();
+        Configurables.configure(memoryChannel, context);
+        kafkaSink.setChannel(memoryChannel);
+        kafkaSink.start();
+
+        // both topics are new, so both events go to the overflow topic under the same key.
+        String avroMsg = "{\"host\": \"localhost\", \"severity\": 2, \"message\": \"overflow-avro\"}";
+        Transaction tx = memoryChannel.getTransaction();
+        tx.begin();
+        memoryChannel.put(EventBuilder.withBody(avroMsg.getBytes(),
+                Collections.singletonMap(TestConstants.TOPIC_HEADER, TestConstants.AVRO_TOPIC)));
+        memoryChannel.put(EventBuilder.withBody("overflow-plain".getBytes(),
+                Collections.singletonMap(TestConstants.TOPIC_HEADER, TestConstants.NEW_TOPIC)));
+        tx.commit();
+        tx.close();
+        assertEquals(Sink.Status.READY, kafkaSink.process());
+
+        // the events of different topics are not coalesced. The overflow topic has no schema, so the
+        // messages are published as they are rather than in the schema of the topics of their events.
+        MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+        assertEquals(avroMsg, new String((byte[]) message.message()));
+        message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+        assertEquals("overflow-plain", new String((byte[]) message.message()));
+
+        ObjectName counterName = new ObjectName("org.apache.flume.sink:type=overflow-coalesce-test");
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(0L, mBeanServer.getAttribute(counterName, "EventCoalescedCount"));
+        kafkaSink.stop();
+    }
+
+    @Test
+    public void testThrottledBatchNotPublishedTwice() throws Exception {
+        Context context = prepareDefaultContext();
+        context.put(Constants.TOPIC, TestConstants.STATIC_TOPIC);
+        context.put(Constants.PREPROCESSOR, "com.thilinamb.flume.sink.preprocessor.HeaderTopicPreprocessor");
+        context.put(Constants.RATE_LIMIT_TOPIC_PREFIX + TestConstants.CUSTOM_TOPIC, "1");
+        context.put(Constants.RATE_LIMIT_MAX_WAIT_MS, "0");
+
+        KafkaSink kafkaSink = new KafkaSink();
+        kafkaSink.setName("throttle-test");
+        Configurables.configure(kafkaSink, context);
+        Channel memoryChannel = new MemoryChannel();
+        Configurables.configure(memoryChannel, context);
+        kafkaSink.setChannel(memoryChannel);
+        kafkaSink.start();
+
+        // use up the burst of the throttled topic.
+        putTopicEvent(memoryChannel, TestConstants.CUSTOM_TOPIC, "throttle-0");
+        assertEquals(Sink.Status.READY, kafkaSink.process());
+
+        // a batch with a topic over its rate is rolled back without publishing the other topic.
+        putTopicEvent(memoryChannel, TestConstants.STATIC_TOPIC, "throttle-static");
+        putTopicEvent(memoryChannel, TestConstants.CUSTOM_TOPIC, "throttle-1");
+        assertEquals(Sink.Status.BACKOFF, kafkaSink.process());
+        Thread.sleep(1100);
+        assertEquals(Sink.Status.READY, kafkaSink.process());
+        putTopicEvent(memoryChannel, TestConstants.STATIC_TOPIC, "throttle-marker");
+        assertEquals(Sink.Status.READY, kafkaSink.process());
+
+        MessageAndMetadata message = testUtil.getNextMessageFromConsumer(TestConstants.CUSTOM_TOPIC);
+        assertEquals("throttle-0", new String((byte[]) message.message()));
+        message = testUtil.getNextMessageFromConsumer(TestConstants.CUSTOM_TOPIC);
+        assertEquals("throttle-1", new String((byte[]) message.message()));
+        message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+        assertEquals("throttle-static", new String((byte[]) message.message()));
+        message = testUtil.getNextMessageFromConsumer(TestConstants.STATIC_TOPIC);
+        assertEquals("throttle-marker", new String((byte[]) message.message()));
+
+        ObjectName counterName = new ObjectName("org.apache.flume.sink:type=throttle-test");
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(1L, mBeanServer.getAttribute(counterName, "EventThrottledCount"));
+        kafkaSink.stop();
+    }
+
+    private void putTopicEvent(Channel channel, String topic, String msg) {
+        Transaction tx = channel.getTransaction();
+        tx.begin();
+        channel.put(EventBuilder.withBody(msg.getBytes(), Collections.singletonMap(TestConstants.TOPIC_HEADER, topic)));
+        tx.commit();
+        tx.close();
+    }
+
+    private void putEvent(Channel channel, String msg) {
+        Transaction tx = channel.getTransaction();
+        tx.begin();
+        channel.put(EventBuilder.withBody(msg.getBytes()));
+        tx.commit();
+        tx.close();
+    }
+
     private Context prepareDefaultContext(){ // Prepares a default context with Kafka Server Properties
         Context context = new Context();
         context.put("kafka.metadata.broker.list", testUtil.getKafkaServerUrl());
@@ -196,6 +819,20 @@ public class KafkaSinkTest {
     }
 
     private Sink.Status prepareAndSend(Context context, String msg) throws EventDeliveryException {
+        List<String> msgs = new ArrayList<String>(1);
+        msgs.add(msg);
+        return prepareAndSend(context, msgs);
+    }
+
+    private Sink.Status prepareAndSend(Context context, List<String> msgs) throws EventDeliveryException {
+        List<Event> events = new ArrayList<Event>(msgs.size());
+        for (String msg : msgs) {
+            events.add(EventBuilder.withBody(msg.getBytes()));
+        }
+        return prepareAndSendEvents(context, events);
+    }
+
+    private Sink.Status prepareAndSendEvents(Context context, List<Event> events) throws EventDeliveryException {
         Sink kafkaSink = new KafkaSink();
         Configurables.configure(kafkaSink, context);
         Channel memoryChannel = new MemoryChannel();
@@ -205,8 +842,9 @@ public class KafkaSinkTest {
 
         Transaction tx = memoryChannel.getTransaction();
         tx.begin();
-        Event event = EventBuilder.withBody(msg.getBytes());
-        memoryChannel.put(event);
+        for (Event event : events) {
+            memoryChannel.put(event);
+        }
         tx.commit();
         tx.close();
 
@@ -0,0 +1,170 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import kafka.producer.KeyedMessage;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the handling of the oversize messages and their reassembly
+ */
+public class MessageReassemblerTest {
+
+    private static final int MAX_BYTES = 1000;
+
+    private KafkaSinkCounter counter = new KafkaSinkCounter("oversize-test");
+
+    @Test
+    public void testWithinLimit() {
+        OversizeHandler handler = new OversizeHandler(MAX_BYTES, true, true, MessageEnvelope.CODEC_GZIP, 10,
+                "UTF8", counter);
+        List<KeyedMessage<String, Object>> messages = Arrays.asList(message("key", "small"),
+                message("key", new byte[MAX_BYTES]));
+        assertSame(messages, handler.fit(messages));
+    }
+
+    @Test
+    public void testCompress() throws IOException {
+        OversizeHandler handler = new OversizeHandler(MAX_BYTES, true, false, MessageEnvelope.CODEC_GZIP, 10,
+                "UTF8", counter);
+        char[] chars = new char[5000];
+        Arrays.fill(chars, 'a');
+        String text = new String(chars);
+        List<KeyedMessage<String, Object>> fitted = handler.fit(Arrays.asList(message("key", "small"),
+                message("key", text)));
+        assertEquals(2, fitted.size());
+        assertEquals("small", fitted.get(0).message());
+        byte[] payload = (byte[]) fitted.get(1).message();
+        assertTrue(MessageEnvelope.isEnvelope(payload));
+        assertTrue(payload.length <= MAX_BYTES);
+        assertEquals("key", fitted.get(1).key());
+
+        MessageReassembler reassembler = new MessageReassembler(10, 60000);
+        assertEquals(text, new String(reassembler.add(payload), "UTF8"));
+        // plain messages pass through.
+        assertEquals("small", new String(reassembler.add("small".getBytes("UTF8")), "UTF8"));
+    }
+
+    @Test
+    public void testSplit() throws IOException {
+        OversizeHandler handler = new OversizeHandler(MAX_BYTES, true, true, MessageEnvelope.CODEC_SNAPPY, 10,
+                "UTF8", counter);
+        // random bytes do not compress, so they are split.
+        byte[] data = new byte[5000];
+        new Random(42).nextBytes(data);
+        List<KeyedMessage<String, Object>> chunks = handler.fit(Collections.singletonList(message(null, data)));
+        assertEquals(6, chunks.size());
+        String key = chunks.get(0).key();
+        for (KeyedMessage<String, Object> chunk : chunks) {
+            assertEquals(key, chunk.key());
+            assertTrue(((byte[]) chunk.message()).length <= MAX_BYTES);
+        }
+
+        MessageReassembler reassembler = new MessageReassembler(10, 60000);
+        for (int i = 0; i < chunks.size() - 1; i++) {
+            assertNull(reassembler.add((byte[]) chunks.get(i).message()));
+            // a redelivered chunk is ignored.
+            assertNull(reassembler.add((byte[]) chunks.get(i).message()));
+        }
+        assertEquals(1, reassembler.getPendingCount());
+        assertArrayEquals(data, reassembler.add((byte[]) chunks.get(chunks.size() - 1).message()));
+        assertEquals(0, reassembler.getPendingCount());
+
+        // too many chunks
+        handler = new OversizeHandler(MAX_BYTES, false, true, MessageEnvelope.CODEC_NONE, 2, "UTF8", counter);
+        long dropped = counter.getOversizeDroppedCount();
+        assertTrue(handler.fit(Collections.singletonList(message("key", data))).isEmpty());
+        assertEquals(dropped + 1, counter.getOversizeDroppedCount());
+    }
+
+    @Test
+    public void testExpiry() throws IOException {
+        OversizeHandler handler = new OversizeHandler(MAX_BYTES, false, true, MessageEnvelope.CODEC_NONE, 10,
+                "UTF8", counter);
+        List<KeyedMessage<String, Object>> first = handler.fit(Collections.singletonList(message("a", new byte[3000])));
+        List<KeyedMessage<String, Object>> second = handler.fit(Collections.singletonList(message("b", new byte[3000])));
+        MessageReassembler reassembler = new MessageReassembler(1, 60000);
+        assertNull(reassembler.add((byte[]) first.get(0).message()));
+        // only one incomplete message is kept.
+        assertNull(reassembler.add((byte[]) second.get(0).message()));
+        assertEquals(1, reassembler.getDroppedCount());
+        assertFalse(MessageEnvelope.isEnvelope("plain".getBytes("UTF8")));
+    }
+
+    @Test
+    public void testInvalidHeaders() throws IOException {
+        MessageReassembler reassembler = new MessageReassembler(10, 60000, MAX_BYTES);
+        byte[] content = new byte[100];
+        // a single chunk claiming more data than it has.
+        assertRejected(reassembler, withInt(MessageEnvelope.wrap(MessageEnvelope.CODEC_NONE, 1, 0, 1, content, 0,
+                50), 22, 100));
+        // chunk counts and lengths which would allocate too much or nothing at all.
+        byte[] chunk = MessageEnvelope.wrap(MessageEnvelope.CODEC_NONE, 2, 0, 2, content, 0, 50);
+        assertRejected(reassembler, withInt(chunk, 18, 0));
+        assertRejected(reassembler, withInt(chunk, 18, -1));
+        assertRejected(reassembler, withInt(chunk, 18, Integer.MAX_VALUE));
+        assertRejected(reassembler, withInt(chunk, 22, Integer.MAX_VALUE));
+        assertRejected(reassembler, withInt(chunk, 22, -1));
+        // chunks outside of the message.
+        assertRejected(reassembler, withInt(chunk, 14, 2));
+        assertRejected(reassembler, withInt(chunk, 26, 60));
+        assertRejected(reassembler, withInt(chunk, 26, -1));
+        assertEquals(0, reassembler.getPendingCount());
+
+        // a chunk which does not agree with the first chunk of its message.
+        assertNull(reassembler.add(chunk));
+        byte[] last = MessageEnvelope.wrap(MessageEnvelope.CODEC_NONE, 2, 1, 2, content, 50, 50);
+        assertRejected(reassembler, withInt(last, 18, 3));
+        assertArrayEquals(content, reassembler.add(last));
+    }
+
+    private static byte[] withInt(byte[] envelope, int index, int value) {
+        byte[] copy = envelope.clone();
+        ByteBuffer.wrap(copy).putInt(index, value);
+        return copy;
+    }
+
+    private static void assertRejected(MessageReassembler reassembler, byte[] payload) {
+        try {
+            reassembler.add(payload);
+            fail("Envelope should be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static KeyedMessage<String, Object> message(String key, Object payload) {
+        return new KeyedMessage<String, Object>("oversize-topic", key, payload);
+    }
+}
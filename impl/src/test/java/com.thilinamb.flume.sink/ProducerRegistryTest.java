@@ -0,0 +1,76 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import kafka.javaapi.producer.Producer;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for the shared Producer registry
+ */
+public class ProducerRegistryTest {
+
+    private ProducerRegistry registry = ProducerRegistry.getInstance();
+
+    @Test
+    public void testSharingIdenticalProperties() {
+        Properties props = prepareProducerProps("localhost:9092");
+        Properties identicalProps = prepareProducerProps("localhost:9092");
+
+        Producer<String, Object> producer = registry.acquire(props);
+        Producer<String, Object> sharedProducer = registry.acquire(identicalProps);
+        assertSame(producer, sharedProducer);
+        assertEquals(2, registry.getReferenceCount(props));
+
+        registry.release(identicalProps);
+        assertEquals(1, registry.getReferenceCount(props));
+        registry.release(props);
+        assertEquals(0, registry.getReferenceCount(props));
+    }
+
+    @Test
+    public void testDifferentProperties() {
+        Properties props = prepareProducerProps("localhost:9092");
+        Properties otherProps = prepareProducerProps("localhost:9093");
+
+        Producer<String, Object> producer = registry.acquire(props);
+        Producer<String, Object> otherProducer = registry.acquire(otherProps);
+        assertNotSame(producer, otherProducer);
+        assertEquals(1, registry.getReferenceCount(props));
+        assertEquals(1, registry.getReferenceCount(otherProps));
+
+        registry.release(props);
+        registry.release(otherProps);
+        assertEquals(0, registry.getReferenceCount(props));
+        assertEquals(0, registry.getReferenceCount(otherProps));
+    }
+
+    private Properties prepareProducerProps(String brokerList) {
+        Properties props = new Properties();
+        props.put("metadata.broker.list", brokerList);
+        props.put("serializer.class", "kafka.serializer.StringEncoder");
+        return props;
+    }
+}
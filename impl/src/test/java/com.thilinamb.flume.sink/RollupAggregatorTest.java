@@ -0,0 +1,73 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import kafka.producer.KeyedMessage;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the rollup windows
+ */
+public class RollupAggregatorTest {
+
+    @Test
+    public void testWindows() {
+        RollupAggregator aggregator = new RollupAggregator("rollup", new String[]{"host", "Severity"}, 1000, 10);
+        assertTrue(aggregator.add(new String[]{"web1", "3"}, 10, 1000));
+        assertTrue(aggregator.add(new String[]{"web1", "3"}, 20, 1500));
+        assertTrue(aggregator.add(new String[]{"web1", null}, 5, 1999));
+        // the window is still open.
+        assertTrue(aggregator.drain(1999, false).isEmpty());
+
+        List<KeyedMessage<String, Object>> summaries = aggregator.drain(2000, false);
+        assertEquals(2, summaries.size());
+        assertEquals("web1|3", summaries.get(0).key());
+        assertEquals("{\"window.start\":1000,\"window.end\":2000,\"host\":\"web1\",\"Severity\":\"3\"," +
+                "\"count\":2,\"bytes\":30}", summaries.get(0).message());
+        assertEquals("web1|null", summaries.get(1).key());
+        assertTrue(aggregator.drain(2500, false).isEmpty());
+
+        // a failed window is published along with the next one.
+        aggregator.add(new String[]{"web2", "6"}, 1, 2100);
+        aggregator.requeue(summaries);
+        assertTrue(aggregator.drain(2500, false).isEmpty());
+        assertEquals(3, aggregator.drain(2500, true).size());
+    }
+
+    @Test
+    public void testOverflow() {
+        RollupAggregator aggregator = new RollupAggregator("rollup", new String[]{"host"}, 1000, 2);
+        assertTrue(aggregator.add(new String[]{"web1"}, 1, 0));
+        assertTrue(aggregator.add(new String[]{"web2"}, 1, 0));
+        assertFalse(aggregator.add(new String[]{"web3"}, 1, 0));
+        assertFalse(aggregator.add(new String[]{"web4"}, 1, 0));
+        assertTrue(aggregator.add(new String[]{"web1"}, 1, 0));
+
+        List<KeyedMessage<String, Object>> summaries = aggregator.drain(0, true);
+        assertEquals(3, summaries.size());
+        assertEquals(RollupAggregator.OVERFLOW, summaries.get(2).key());
+        assertTrue(((String) summaries.get(2).message()).contains("\"count\":2"));
+    }
+}
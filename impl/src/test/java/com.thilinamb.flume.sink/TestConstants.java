@@ -23,4 +23,10 @@ public class TestConstants {
     public static final String CUSTOM_KEY = "custom-key";
     public static final String CUSTOM_TOPIC = "custom-topic";
     public static final String CUSTOM_MSG_BODY = "custom-message";
+    public static final String AVRO_TOPIC = "avro-topic";
+    public static final String ROLLUP_TOPIC = "rollup-topic";
+    public static final String INVALID_TOPIC = "invalid topic";
+    public static final String FAIL_ONCE_MSG_BODY = "fail-once";
+    public static final String TOPIC_HEADER = "topic";
+    public static final String NEW_TOPIC = "new-topic";
 }
@@ -0,0 +1,101 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the token bucket based rate limiting
+ */
+public class TokenBucketTest {
+
+    @Test
+    public void testBurst() {
+        // a low rate, so that no permit is refilled while the test runs.
+        TokenBucket bucket = new TokenBucket(0.1, 3);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+        assertTrue(bucket.nanosUntilAvailable() > 0);
+    }
+
+    @Test
+    public void testReserve() {
+        TokenBucket bucket = new TokenBucket(0.1, 3);
+        assertTrue(bucket.isFull());
+        assertEquals(0, bucket.nanosUntilAvailable(3));
+        assertTrue(bucket.nanosUntilAvailable(4) > 0);
+        assertEquals(0, bucket.reserve(2));
+        assertFalse(bucket.isFull());
+        // only one permit is left, so the second one of the reservation has to wait.
+        assertTrue(bucket.reserve(2) > 0);
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void testRefill() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100, 1);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        Thread.sleep(50);
+        assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    public void testTopicRates() {
+        Map<String, Double> topicRates = new HashMap<String, Double>();
+        topicRates.put(TestConstants.STATIC_TOPIC, 10d);
+        topicRates.put(TestConstants.CUSTOM_TOPIC, 0d);
+        TopicRateLimiter limiter = new TopicRateLimiter(0, topicRates, 1, 10);
+        assertNotNull(limiter.getBucket(TestConstants.STATIC_TOPIC));
+        assertNull(limiter.getBucket(TestConstants.CUSTOM_TOPIC));
+        assertNull(limiter.getBucket(Constants.DEFAULT_TOPIC));
+
+        limiter = new TopicRateLimiter(5, Collections.<String, Double>emptyMap(), 1, 10);
+        assertNotNull(limiter.getBucket(Constants.DEFAULT_TOPIC));
+    }
+
+    @Test
+    public void testTopicBucketsBounded() {
+        Map<String, Double> topicRates = new HashMap<String, Double>();
+        topicRates.put(TestConstants.STATIC_TOPIC, 10d);
+        TopicRateLimiter limiter = new TopicRateLimiter(5, topicRates, 1, 1);
+        TokenBucket staticBucket = limiter.getBucket(TestConstants.STATIC_TOPIC);
+        TokenBucket customBucket = limiter.getBucket(TestConstants.CUSTOM_TOPIC);
+        assertSame(customBucket, limiter.getBucket(TestConstants.CUSTOM_TOPIC));
+
+        // the least recently used topic at the default rate is evicted, but not a topic with its own rate.
+        assertNotNull(limiter.getBucket(Constants.DEFAULT_TOPIC));
+        assertNotSame(customBucket, limiter.getBucket(TestConstants.CUSTOM_TOPIC));
+        assertSame(staticBucket, limiter.getBucket(TestConstants.STATIC_TOPIC));
+    }
+}
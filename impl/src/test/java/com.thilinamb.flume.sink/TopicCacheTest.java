@@ -0,0 +1,80 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Unit tests for the cache of the topics extracted from the events
+ */
+public class TopicCacheTest {
+
+    private KafkaSinkCounter counter;
+    private TopicCache topicCache;
+
+    @Before
+    public void setup() {
+        // no broker listens on the port, so no topic is ever resolved.
+        Properties props = new Properties();
+        props.put("metadata.broker.list", "localhost:1");
+        KafkaCluster cluster = new KafkaCluster(Constants.DEFAULT_CLUSTER, "topic-cache", props, false, 1);
+        counter = new KafkaSinkCounter("topic-cache");
+        // a low rate, so that no permit is refilled while the test runs.
+        topicCache = new TopicCache(Collections.singletonList(cluster), 10, TestConstants.STATIC_TOPIC, 60000,
+                0.01, 2, 1000, counter);
+        topicCache.start("topic-cache");
+    }
+
+    @After
+    public void tearDown() {
+        topicCache.stop();
+    }
+
+    @Test
+    public void testOverflowAndThrottling() throws InterruptedException {
+        assertEquals(TestConstants.STATIC_TOPIC, topicCache.resolve("tenant-1"));
+        assertEquals(TestConstants.STATIC_TOPIC, topicCache.resolve("tenant-2"));
+        assertEquals(0, counter.getTopicCreationThrottledCount());
+        // the burst is used up by the first two topics.
+        assertEquals(TestConstants.STATIC_TOPIC, topicCache.resolve("tenant-3"));
+        assertEquals(1, counter.getTopicCreationThrottledCount());
+        // the overflow topic itself is never resolved.
+        assertEquals(TestConstants.STATIC_TOPIC, topicCache.resolve(TestConstants.STATIC_TOPIC));
+        assertEquals(3, counter.getTopicCacheOverflowCount());
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (topicCache.isResolving("tenant-1") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(topicCache.isResolving("tenant-1"));
+        assertFalse(topicCache.isKnown("tenant-1"));
+        // an unresolved topic is not requested again until the retry time, so it takes no permit.
+        assertEquals(TestConstants.STATIC_TOPIC, topicCache.resolve("tenant-1"));
+        assertEquals(1, counter.getTopicCreationThrottledCount());
+        assertEquals(0, counter.getTopicCacheHitCount());
+    }
+}
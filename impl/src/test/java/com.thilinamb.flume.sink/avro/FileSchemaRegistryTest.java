@@ -0,0 +1,75 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.avro;
+
+import org.apache.flume.Context;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the file based schema registry
+ */
+public class FileSchemaRegistryTest {
+
+    private FileSchemaRegistry registry;
+
+    @Before
+    public void setup() {
+        Context context = new Context();
+        context.put(AvroConstants.SCHEMA_DIR, getClass().getResource("/avro").getPath());
+        registry = new FileSchemaRegistry();
+        registry.configure(context);
+    }
+
+    @Test
+    public void testTopicSchema() {
+        assertNotNull(registry.getSchema("avro-topic"));
+    }
+
+    @Test
+    public void testInvalidTopics() {
+        // a topic derived from an event should not point outside of the schema directory.
+        String[] topics = {"../avro/avro-topic", "avro/../avro-topic", "..", "", "avro topic"};
+        for (String topic : topics) {
+            try {
+                registry.getSchema(topic);
+                fail("Topic should be rejected: " + topic);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidTopicFailsTheEvent() {
+        // the converter rejects the event with the invalid topic, rather than failing its batch.
+        AvroConverter converter = new AvroConverter(new CachingSchemaRegistry(registry));
+        try {
+            converter.convert("../avro/avro-topic", "{}");
+            fail("Event should be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.preprocessor;
+
+import com.thilinamb.flume.sink.Constants;
+import com.thilinamb.flume.sink.MessagePreprocessor;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A typical regular expression based syslog preprocessor, publishing to a topic per facility keyed
+ * by host. Used as the baseline of the syslog preprocessor benchmark.
+ */
+public class RegexSyslogPreprocessor implements MessagePreprocessor {
+
+    private static final Pattern BSD = Pattern.compile(
+            "^<(\\d{1,3})>\\w{3} [ \\d]\\d \\d\\d:\\d\\d:\\d\\d (\\S+) ([^\\[: ]+)(?:\\[(\\d+)\\])?: (.*)$");
+    private static final Pattern STRUCTURED = Pattern.compile(
+            "^<(\\d{1,3})>\\d{1,3} (\\S+) (\\S+) (\\S+) (\\S+) (\\S+) (-|\\[.*\\]) ?(.*)$");
+    private static final String[] FACILITIES = {"kern", "user", "mail", "daemon", "auth", "syslog", "lpr",
+            "news", "uucp", "cron", "authpriv", "ftp", "ntp", "audit", "alert", "clock", "local0", "local1",
+            "local2", "local3", "local4", "local5", "local6", "local7"};
+
+    @Override
+    public String extractKey(Event event, Context context) {
+        String line = new String(event.getBody());
+        Matcher matcher = BSD.matcher(line);
+        if (matcher.matches()) {
+            return matcher.group(2);
+        }
+        matcher = STRUCTURED.matcher(line);
+        return matcher.matches() ? matcher.group(3) : null;
+    }
+
+    @Override
+    public String extractTopic(Event event, Context context) {
+        String line = new String(event.getBody());
+        Matcher matcher = BSD.matcher(line);
+        if (!matcher.matches()) {
+            matcher = STRUCTURED.matcher(line);
+            if (!matcher.matches()) {
+                return context.getString(Constants.TOPIC, Constants.DEFAULT_TOPIC);
+            }
+        }
+        return "syslog-" + FACILITIES[Integer.parseInt(matcher.group(1)) >> 3];
+    }
+
+    @Override
+    public String transformMessage(Event event, Context context) {
+        return new String(event.getBody());
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.syslog;
+
+import com.thilinamb.flume.sink.MessagePreprocessor;
+import com.thilinamb.flume.sink.preprocessor.RegexSyslogPreprocessor;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the built-in syslog preprocessor with a typical regular expression based one, extracting
+ * the topic per facility and the key by host from a mix of RFC 3164 and RFC 5424 messages. The time
+ * and the bytes allocated per event are logged.
+ *
+ * This is excluded from the regular build. Run it with <code>mvn test -Pbenchmark</code>. The number
+ * of events can be overridden with <code>-Dbenchmark.syslog.events</code>.
+ */
+public class SyslogPreprocessorBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyslogPreprocessorBenchmark.class);
+    private static final int EVENTS = Integer.getInteger("benchmark.syslog.events", 2000000);
+    private static final String[] HOSTS = {"web1", "web2", "db1.example.com", "cache3", "lb1"};
+    private static final String[] APPS = {"sshd", "nginx", "postgres", "CRON", "kernel"};
+
+    @Test
+    public void compare() {
+        Event[] events = prepareEvents(1024);
+        Context context = new Context();
+        context.put("syslog.topic.template", "syslog-%{facility}");
+        context.put("syslog.key.template", "%{host}");
+        MessagePreprocessor builtIn = new SyslogPreprocessor();
+        MessagePreprocessor regex = new RegexSyslogPreprocessor();
+        for (Event event : events) {
+            assertEquals(regex.extractTopic(event, context), builtIn.extractTopic(event, context));
+            assertEquals(regex.extractKey(event, context), builtIn.extractKey(event, context));
+        }
+
+        // warm up both before measuring either.
+        run(regex, events, context, EVENTS / 4);
+        run(builtIn, events, context, EVENTS / 4);
+        logger.info("Benchmark result: regex " + run(regex, events, context, EVENTS));
+        logger.info("Benchmark result: built-in " + run(builtIn, events, context, EVENTS));
+    }
+
+    private static String run(MessagePreprocessor preprocessor, Event[] events, Context context, int count) {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int checksum = 0;
+        long allocated = threadBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            Event event = events[i & (events.length - 1)];
+            checksum += preprocessor.extractTopic(event, context).length();
+            String key = preprocessor.extractKey(event, context);
+            checksum += key == null ? 0 : key.length();
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threadBean.getThreadAllocatedBytes(threadId) - allocated;
+        return String.format("%.1f ns/event, %d bytes/event (checksum %d)", (double) elapsed / count,
+                allocated / count, checksum);
+    }
+
+    private static Event[] prepareEvents(int count) {
+        Event[] events = new Event[count];
+        for (int i = 0; i < count; i++) {
+            int priority = (i * 7) % 192;
+            String host = HOSTS[i % HOSTS.length];
+            String app = APPS[i % APPS.length];
+            String line;
+            if (i % 2 == 0) {
+                line = "<" + priority + ">Oct 11 22:14:" + (10 + i % 50) + " " + host + " " + app + "[" + i
+                        + "]: connection " + i + " closed by remote peer after 42 requests";
+            } else {
+                line = "<" + priority + ">1 2003-10-11T22:14:15.003Z " + host + " " + app + " " + i
+                        + " ID47 [meta seq=\"" + i + "\"] connection " + i + " closed by remote peer";
+            }
+            events[i] = EventBuilder.withBody(line.getBytes());
+        }
+        return events;
+    }
+}
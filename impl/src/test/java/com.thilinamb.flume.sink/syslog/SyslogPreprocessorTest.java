@@ -0,0 +1,166 @@
+/**
+ Licensed to the Apache Software Foundation (ASF) under one or more
+ contributor license agreements.  See the NOTICE file distributed with
+ this work for additional information regarding copyright ownership.
+ The ASF licenses this file to You under the Apache License, Version 2.0
+ (the "License"); you may not use this file except in compliance with
+ the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ limitations under the License.
+ */
+
+package com.thilinamb.flume.sink.syslog;
+
+import com.thilinamb.flume.sink.Constants;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the syslog parser and preprocessor
+ */
+public class SyslogPreprocessorTest {
+
+    private static final Map<String, String> NO_HEADERS = Collections.emptyMap();
+
+    @Test
+    public void testBsdMessage() {
+        String line = "<34>Oct 11 22:14:15 mymachine su[123]: 'su root' failed for lonvick on /dev/pts/8";
+        SyslogMessage message = new SyslogMessage();
+        message.parse(line.getBytes(), NO_HEADERS);
+        assertEquals(34, message.getPriority());
+        assertEquals("auth", message.getFacilityName());
+        assertEquals("crit", message.getSeverityName());
+        assertEquals(0, message.getVersion());
+        assertEquals("mymachine", message.getHost());
+        assertEquals("su", message.getAppName());
+        assertEquals("123", message.getProcId());
+        assertNull(message.getMsgId());
+        assertEquals("'su root'", line.substring(message.getMessageStart(), message.getMessageStart() + 9));
+
+        // without a hostname, the host is taken from the headers.
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(SyslogConstants.HOST_HEADER, "web1");
+        message.parse("<13>Oct  9 10:00:00 myapp: hello".getBytes(), headers);
+        assertEquals("user", message.getFacilityName());
+        assertEquals("notice", message.getSeverityName());
+        assertEquals("web1", message.getHost());
+        assertEquals("myapp", message.getAppName());
+        assertNull(message.getProcId());
+    }
+
+    @Test
+    public void testStructuredMessage() {
+        String line = "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 " +
+                "[exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"][x a=\"\\]\"] " +
+                "An application event";
+        SyslogMessage message = new SyslogMessage();
+        message.parse(line.getBytes(), NO_HEADERS);
+        assertEquals("local4", message.getFacilityName());
+        assertEquals("notice", message.getSeverityName());
+        assertEquals(1, message.getVersion());
+        assertEquals("mymachine.example.com", message.getHost());
+        assertEquals("evntslog", message.getAppName());
+        assertNull(message.getProcId());
+        assertEquals("ID47", message.getMsgId());
+        assertEquals("An application event", line.substring(message.getMessageStart()));
+
+        line = "<14>1 - - - - - -";
+        message.parse(line.getBytes(), NO_HEADERS);
+        assertNull(message.getHost());
+        assertNull(message.getAppName());
+        assertEquals(line.length(), message.getMessageStart());
+    }
+
+    @Test
+    public void testHeaders() {
+        // the Flume syslog sources move the priority and the hostname into the headers.
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(SyslogConstants.FACILITY_HEADER, "10");
+        headers.put(SyslogConstants.SEVERITY_HEADER, "6");
+        headers.put(SyslogConstants.HOST_HEADER, "web1");
+        SyslogMessage message = new SyslogMessage();
+        message.parse("sshd[42]: Accepted publickey".getBytes(), headers);
+        assertEquals("authpriv", message.getFacilityName());
+        assertEquals("info", message.getSeverityName());
+        assertEquals("web1", message.getHost());
+        assertEquals("sshd", message.getAppName());
+        assertEquals("42", message.getProcId());
+
+        message.parse("no priority at all".getBytes(), NO_HEADERS);
+        assertEquals(-1, message.getPriority());
+        assertNull(message.getFacilityName());
+    }
+
+    @Test
+    public void testEventsSharingBody() {
+        Context context = new Context();
+        context.put("syslog.topic.template", "syslog-%{app}");
+        SyslogPreprocessor preprocessor = new SyslogPreprocessor();
+        // the same body with the hostname in different headers.
+        byte[] body = "sshd[42]: Accepted publickey".getBytes();
+        Event first = EventBuilder.withBody(body, Collections.singletonMap(SyslogConstants.HOST_HEADER, "web1"));
+        Event second = EventBuilder.withBody(body, Collections.singletonMap(SyslogConstants.HOST_HEADER, "web2"));
+
+        preprocessor.transformMessage(first, context);
+        assertEquals("syslog-sshd", preprocessor.extractTopic(first, context));
+        assertEquals("web1", preprocessor.extractKey(first, context));
+        preprocessor.transformMessage(second, context);
+        assertEquals("syslog-sshd", preprocessor.extractTopic(second, context));
+        assertEquals("web2", preprocessor.extractKey(second, context));
+    }
+
+    @Test
+    public void testTemplates() {
+        Context context = new Context();
+        context.put("syslog.topic.template", "syslog-%{facility}-%{app}");
+        context.put("syslog.key.template", "%{host}/%{pri}");
+        SyslogPreprocessor preprocessor = new SyslogPreprocessor();
+
+        Event event = EventBuilder.withBody("<34>Oct 11 22:14:15 mymachine su/x[123]: failed".getBytes());
+        assertEquals("syslog-auth-su_x", preprocessor.extractTopic(event, context));
+        String key = preprocessor.extractKey(event, context);
+        assertEquals("mymachine/34", key);
+        assertTrue(preprocessor.isUrgent(event, context));
+
+        // the rendered strings are reused.
+        Event other = EventBuilder.withBody("<38>Oct 11 22:14:16 mymachine su/x[124]: ok".getBytes());
+        assertEquals("syslog-auth-su_x", preprocessor.extractTopic(other, context));
+        assertEquals("mymachine/38", preprocessor.extractKey(other, context));
+        assertSame(key, preprocessor.extractKey(event, context));
+        assertFalse(preprocessor.isUrgent(other, context));
+
+        // the missing fields and the default topic
+        context.put("syslog.key.template", "%{msgid}");
+        assertEquals("unknown", preprocessor.extractKey(event, context));
+        context = new Context();
+        assertEquals(Constants.DEFAULT_TOPIC, preprocessor.extractTopic(event, context));
+        assertEquals("mymachine", preprocessor.extractKey(event, context));
+
+        try {
+            SyslogTemplate.compile("%{hostname}", false);
+            fail("Unknown field accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -18,7 +18,11 @@
 
 package com.thilinamb.flume.sink.util;
 
+import kafka.admin.AdminUtils;
 import kafka.message.MessageAndMetadata;
+import kafka.utils.ZKStringSerializer$;
+import kafka.utils.ZkUtils;
+import org.I0Itec.zkclient.ZkClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,6 +39,8 @@ import java.util.Random;
 public class TestUtil {
 
     private static final Logger logger = LoggerFactory.getLogger(TestUtil.class);
+    private static final int ZK_TIMEOUT_MS = 10000;
+    private static final long LEADER_TIMEOUT_MS = 30000;
     private static TestUtil instance = new TestUtil();
 
     private Random randPortGen = new Random(System.currentTimeMillis());
@@ -125,6 +131,28 @@ public class TestUtil {
         return getKafkaConsumer().getNextMessage(topic);
     }
 
+    /**
+     * Create a topic and wait for its partitions to have a leader, so that the first sends do not
+     * fail while the topic is created on demand.
+     */
+    public void createTopic(String topic, int partitions) throws InterruptedException {
+        ZkClient zkClient = new ZkClient(getZkUrl(), ZK_TIMEOUT_MS, ZK_TIMEOUT_MS, ZKStringSerializer$.MODULE$);
+        try {
+            AdminUtils.createTopic(zkClient, topic, partitions, 1, new Properties());
+            long deadline = System.currentTimeMillis() + LEADER_TIMEOUT_MS;
+            for (int partition = 0; partition < partitions; partition++) {
+                while (!ZkUtils.getLeaderForPartition(zkClient, topic, partition).isDefined()) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IllegalStateException("No leader elected for the topic " + topic);
+                    }
+                    Thread.sleep(100);
+                }
+            }
+        } finally {
+            zkClient.close();
+        }
+    }
+
     public void prepare() {
         boolean startStatus = startKafkaServer();
         if (!startStatus) {
@@ -143,6 +171,10 @@ public class TestUtil {
     public void tearDown() {
         logger.info("Shutting down the Kafka Consumer.");
         getKafkaConsumer().shutdown();
+        synchronized (this) {
+            // the next prepare phase starts a new ZooKeeper instance, which needs a new consumer.
+            kafkaConsumer = null;
+        }
         try {
             Thread.sleep(3 * 1000);   // add this sleep time to
             // ensure that the server is fully started before proceeding with tests.